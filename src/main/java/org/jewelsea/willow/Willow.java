@@ -29,7 +29,6 @@ import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.beans.value.ChangeListener;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Control;
@@ -42,12 +41,16 @@ import javafx.scene.input.TransferMode;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import org.jewelsea.willow.bookmark.BookmarkStore;
 import org.jewelsea.willow.browser.BrowserWindow;
 import org.jewelsea.willow.browser.LoadingProgressDisplay;
 import org.jewelsea.willow.browser.StatusDisplay;
 import org.jewelsea.willow.browser.TabManager;
+import org.jewelsea.willow.navigation.HistoryStore;
+import org.jewelsea.willow.navigation.LocationSuggestions;
 import org.jewelsea.willow.navigation.NavTools;
 import org.jewelsea.willow.sidebar.SideBar;
+import org.jewelsea.willow.util.BindingScope;
 import org.jewelsea.willow.util.DebugUtil;
 import org.jewelsea.willow.util.ResourceUtil;
 
@@ -70,9 +73,9 @@ public class Willow extends Application {
     private TabManager tabManager;                        // tab manager for managing browser tabs.
     private BorderPane mainLayout = new BorderPane();     // layout of the browser application.
     private TextField chromeLocField = new TextField();   // current location of the current browser or a value being updated by the user to change the current browser's location.
-    // change listeners to tie the location of the current browser to the chromeLocField and vice versa (binding cannot be used because both these values must be read/write).
-    private ChangeListener<String> browserLocFieldChangeListener;
-    private ChangeListener<String> chromeLocFieldChangeListener;
+    private StatusDisplay statusDisplay = new StatusDisplay();    // status messages of the current browser.
+    // listeners and bindings which tie the chrome to the current browser, e.g. the location of the current browser to the chromeLocField and vice versa.
+    private BindingScope browserBindings = new BindingScope();
 
     public static void main(String[] args) {
         Application.launch(args);
@@ -85,6 +88,7 @@ public class Willow extends Application {
 
         // initialize the stuff which can't be initialized in the init method due to stupid threading issues.
         tabManager = new TabManager(chromeLocField);
+        final boolean sessionRestored = tabManager.restoreSession();
         sidebar = SideBar.createSidebar(this);
 
         // initialize the location field in the Chrome.
@@ -96,6 +100,7 @@ public class Willow extends Application {
                 getBrowser().navTo(chromeLocField.getText());
             }
         });
+        LocationSuggestions.install(chromeLocField, location -> getBrowser().navTo(location));
 
         // setup the main layout.
         HBox.setHgrow(chromeLocField, Priority.ALWAYS);
@@ -108,13 +113,18 @@ public class Willow extends Application {
         overlaidLayout.getChildren().addAll(mainLayout, overlayLayer);
         overlayLayer.setPickOnBounds(false);
 
+        // show the status of the current browser over the bottom left of the browser.
+        statusDisplay.translateXProperty().bind(getSidebarDisplay().widthProperty().add(20).add(getSidebarDisplay().translateXProperty()));
+        statusDisplay.translateYProperty().bind(overlayLayer.heightProperty().subtract(50));
+        overlayLayer.getChildren().add(statusDisplay);
+
         // monitor the tab manager for a change in the browser window and update the display appropriately.
         tabManager.browserProperty().addListener((observableValue, oldBrowser, newBrowser) ->
-                browserChanged(oldBrowser, newBrowser, stage, overlayLayer)
+                browserChanged(oldBrowser, newBrowser, stage)
         );
 
         // we need to manually handle the change from no browser at all to an initial browser.
-        browserChanged(null, getBrowser(), stage, overlayLayer);
+        browserChanged(null, getBrowser(), stage);
 
         // create the scene.
         final Scene scene = new Scene(
@@ -135,8 +145,10 @@ public class Willow extends Application {
         stage.setScene(scene);
         stage.show();
 
-        // nav to the home location
-        getBrowser().navTo(homeLocationProperty.get());
+        // nav to the home location, unless we picked up where the last session left off.
+        if (!sessionRestored) {
+            getBrowser().navTo(homeLocationProperty.get());
+        }
 
         // highlight the entire text if we click on the chromeLocField so that it can be easily changed.
         chromeLocField.focusedProperty().addListener((observableValue, from, to) -> {
@@ -186,6 +198,17 @@ public class Willow extends Application {
         //debug(scene);
     }
 
+    @Override
+    public void stop() {
+        // save the tabs so that they are there next time.
+        if (tabManager != null) {
+            tabManager.saveSession();
+        }
+        // finish writing the visits still queued for the history log and any bookmark changes.
+        HistoryStore.getInstance().flush();
+        BookmarkStore.getInstance().flush();
+    }
+
     private void debug(final Scene scene) {
         System.getProperties().list(System.out);
         //ScenicView.show(scene);
@@ -254,75 +277,71 @@ public class Willow extends Application {
      * @param oldBrowser   the old browser we were to displaying (or none if there is no such thing).
      * @param newBrowser   the new browser we are to display.
      * @param stage        the stage displaying the chrome.
-     * @param overlayLayer the overlay layer for status and other information in the chrome.
      */
-    private void browserChanged(final BrowserWindow oldBrowser, final BrowserWindow newBrowser, final Stage stage, AnchorPane overlayLayer) {
-        // cleanup the links between the chrome's location field and the old browser's location field.
-        if (oldBrowser != null && browserLocFieldChangeListener != null) {
-            oldBrowser.getLocField().textProperty().removeListener(browserLocFieldChangeListener);
-        }
-        if (chromeLocFieldChangeListener != null) {
-            chromeLocField.textProperty().removeListener(chromeLocFieldChangeListener);
-        }
+    private void browserChanged(final BrowserWindow oldBrowser, final BrowserWindow newBrowser, final Stage stage) {
+        // remove everything tying the chrome to the old browser, so the old browser no longer updates the chrome
+        // (and the chrome doesn't keep listening to browsers it has moved on from).
+        browserBindings.dispose();
 
         // update the stage title to monitor the page displayed in the selected browser.
-        // todo hmm I wonder how the listeners ever get removed...
-        newBrowser.getView().getEngine().titleProperty().addListener((observableValue, oldTitle, newTitle) -> {
-            if (newTitle != null && !"".equals(newTitle)) {
-                stage.setTitle(getString("browser.name") + " - " + newTitle);
-            } else {
-                // necessary because when the browser is in the process of loading a new page, the title will be empty.  todo I wonder if the title would be reset correctly if the page has no title.
-                if (!newBrowser.getView().getEngine().getLoadWorker().isRunning()) {
-                    stage.setTitle(getString("browser.name") );
-                }
-            }
-        });
+        updateTitle(stage, newBrowser);
+        browserBindings.addListener(newBrowser.getView().getEngine().titleProperty(), (observableValue, oldTitle, newTitle) ->
+                updateTitle(stage, newBrowser)
+        );
 
         // monitor the status of the selected browser.
-        overlayLayer.getChildren().clear();
-        final HBox statusDisplay = new StatusDisplay(newBrowser.statusProperty());
-        statusDisplay.translateXProperty().bind(getSidebarDisplay().widthProperty().add(20).add(getSidebarDisplay().translateXProperty()));
-        statusDisplay.translateYProperty().bind(overlayLayer.heightProperty().subtract(50));
-        overlayLayer.getChildren().add(statusDisplay);
+        statusDisplay.monitor(newBrowser.statusProperty(), browserBindings);
 
         // monitor the loading progress of the selected browser.
         sidebar.setLoadControl(
             new LoadingProgressDisplay(
-                newBrowser.getView().getEngine().getLoadWorker()
+                newBrowser.getView().getEngine().getLoadWorker(),
+                browserBindings
             )
         );
 
         // make the chrome's location field respond to changes in the new browser's location.
-        browserLocFieldChangeListener = (observableValue, oldLoc, newLoc) -> {
+        browserBindings.addListener(newBrowser.getLocField().textProperty(), (observableValue, oldLoc, newLoc) -> {
             if (!chromeLocField.getText().equals(newLoc)) {
                 chromeLocField.setText(newLoc);
             }
-        };
-        newBrowser.getLocField().textProperty().addListener(browserLocFieldChangeListener);
+        });
 
         // make the new browser respond to changes the user makes to the chrome's location.
-        chromeLocFieldChangeListener = (observableValue, oldLoc, newLoc) -> {
+        browserBindings.addListener(chromeLocField.textProperty(), (observableValue, oldLoc, newLoc) -> {
             if (!newBrowser.getLocField().getText().equals(newLoc)) {
                 newBrowser.getLocField().setText(newLoc);
             }
-        };
-        chromeLocField.textProperty().addListener(chromeLocFieldChangeListener);
+        });
         chromeLocField.setText(newBrowser.getLocField().getText());
 
         // enable forward and backward buttons as appropriate.
         Button forwardButton = (Button) mainLayout.lookup("#forwardButton");
         if (forwardButton != null) {
-            forwardButton.disableProperty().unbind();
-            forwardButton.disableProperty().bind(newBrowser.getHistory().canNavForwardProperty().not());
+            browserBindings.bind(forwardButton.disableProperty(), newBrowser.getHistory().canNavForwardProperty().not());
         }
         Button backButton = (Button) mainLayout.lookup("#backButton");
-        if (forwardButton != null) {
-            backButton.disableProperty().unbind();
-            backButton.disableProperty().bind(newBrowser.getHistory().canNavBackwardProperty().not());
+        if (backButton != null) {
+            browserBindings.bind(backButton.disableProperty(), newBrowser.getHistory().canNavBackwardProperty().not());
         }
 
-        // display the selected browser.
-        mainLayout.setCenter(newBrowser.getView());
+        // display the selected browser, following it as it switches between the web view and other viewers.
+        browserBindings.bind(mainLayout.centerProperty(), newBrowser.displayProperty());
+    }
+
+    /**
+     * Set the stage title to the title of the page displayed in a browser (if there is one).
+     */
+    private void updateTitle(Stage stage, BrowserWindow browser) {
+        final String title = browser.getView().getEngine().getTitle();
+        if (title != null && !"".equals(title)) {
+            stage.setTitle(getString("browser.name") + " - " + title);
+        } else {
+            // necessary because when the browser is in the process of loading a new page, the title will be empty.  todo I wonder if the title would be reset correctly if the page has no title.
+            if (!browser.getView().getEngine().getLoadWorker().isRunning()) {
+                stage.setTitle(getString("browser.name"));
+            }
+        }
     }
 
     public BrowserWindow getBrowser() {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.bookmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named location the user wants to come back to, or a folder of them.
+ *
+ * The name and location never change, the BookmarkStore keeps track of where a bookmark is in the folder tree.
+ */
+public final class Bookmark {
+    private final String name;
+    private final String location;
+    /** the folder this bookmark is in, null for the top folder or a bookmark which has been removed. */
+    Bookmark parent;
+    /** the bookmarks in this folder in order, null if this isn't a folder. */
+    final List<Bookmark> children;
+
+    private Bookmark(String name, String location, boolean folder) {
+        this.name = name;
+        this.location = location;
+        this.children = folder ? new ArrayList<>() : null;
+    }
+
+    static Bookmark createFolder(String name) {
+        return new Bookmark(name, null, true);
+    }
+
+    static Bookmark createBookmark(String name, String location) {
+        return new Bookmark(name, location, false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the bookmarked location, null for a folder. */
+    public String getLocation() {
+        return location;
+    }
+
+    public boolean isFolder() {
+        return children != null;
+    }
+
+    @Override
+    public String toString() {
+        return isFolder() ? name + "/" : name + " => " + location;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.bookmark;
+
+import org.jewelsea.willow.util.StorageUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The user's bookmarks: a tree of folders, kept between runs.
+ *
+ * Bookmarks are indexed by location and by name, so checking whether something is already bookmarked doesn't mean
+ * walking the tree, which matters when thousands of bookmarks are imported at once.  Changes are saved in the
+ * background shortly after they are made, many changes at once are saved together, and the bookmark file is replaced
+ * atomically so a crash never leaves half of it behind.
+ */
+public class BookmarkStore {
+    /** name of the saving thread. */
+    public static final String WRITER_THREAD_NAME = "willow-bookmark-writer";
+
+    /** name of the storage area used for bookmarks. */
+    private static final String STORAGE_AREA = "bookmarks";
+    private static final String BOOKMARK_FILE = "bookmarks.dat";
+    /** identifies the bookmark file format, bumped when it changes; files in other formats are ignored. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+    /** how long after a change the bookmarks are saved, so a burst of changes is saved once. */
+    private static final long SAVE_DELAY_MILLIS = 1000;
+
+    private static BookmarkStore instance;
+
+    /**
+     * Notified when the bookmarks in a folder change, on the thread which changed them.
+     */
+    public interface Listener {
+        void folderChanged(Bookmark folder);
+    }
+
+    private final Bookmark root = Bookmark.createFolder("");
+    /** location => bookmarks of the location, usually just the one. */
+    private final Map<String, List<Bookmark>> byLocation = new HashMap<>();
+    /** name => bookmarks and folders with the name. */
+    private final Map<String, List<Bookmark>> byName = new HashMap<>();
+    private int size;
+    /** counts changes to the bookmarks, so copies of them can tell when they are out of date. */
+    private long modifications;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** the bookmark file or null if bookmarks can't be saved. */
+    private final Path file;
+    /** true if there was no saved bookmark file to load. */
+    private final boolean fresh;
+    private boolean saveScheduled;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, WRITER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized BookmarkStore getInstance() {
+        if (instance == null) instance = new BookmarkStore();
+        return instance;
+    }
+
+    private BookmarkStore() {
+        Path bookmarkFile = null;
+        try {
+            bookmarkFile = StorageUtil.getStorageDir(STORAGE_AREA).resolve(BOOKMARK_FILE);
+        } catch (IOException e) {
+            System.out.println("Unable to create bookmark storage, bookmarks will not be saved: " + e);
+        }
+        file = bookmarkFile;
+        fresh = !load();
+    }
+
+    /** @return the top folder, which holds all the other bookmarks. */
+    public Bookmark getRoot() {
+        return root;
+    }
+
+    /** @return true if there were no saved bookmarks when the browser started, e.g. it's the first run. */
+    public boolean isFresh() {
+        return fresh;
+    }
+
+    /**
+     * @return a copy of the bookmarks in a folder, in order.
+     */
+    public synchronized List<Bookmark> getChildren(Bookmark folder) {
+        return folder.isFolder() ? new ArrayList<>(folder.children) : Collections.emptyList();
+    }
+
+    /**
+     * @return the folder a bookmark is in, null for the top folder or a removed bookmark.
+     */
+    public synchronized Bookmark getParent(Bookmark bookmark) {
+        return bookmark.parent;
+    }
+
+    /**
+     * Bookmark a location.
+     *
+     * @param folder   the folder to put the bookmark in.
+     * @param name     the name of the bookmark.
+     * @param location the location to bookmark.
+     * @return the new bookmark, or null if the location was already bookmarked in the folder.
+     */
+    public Bookmark add(Bookmark folder, String name, String location) {
+        if (location == null || location.isEmpty()) return null;
+
+        final Bookmark bookmark;
+        synchronized (this) {
+            if (find(byLocation, location, folder, false) != null) return null;
+
+            bookmark = Bookmark.createBookmark(name != null && !name.isEmpty() ? name : location, location);
+            attach(folder, bookmark);
+        }
+        changed(folder);
+
+        return bookmark;
+    }
+
+    /**
+     * Add many bookmarks to a folder at once, e.g. when importing them, with a single change notification.
+     *
+     * @param folder    the folder to put the bookmarks in.
+     * @param bookmarks new bookmarks, made with Bookmark.createBookmark.
+     * @return the number of bookmarks added, locations already bookmarked in the folder are skipped.
+     */
+    int addAll(Bookmark folder, List<Bookmark> bookmarks) {
+        int added = 0;
+        synchronized (this) {
+            for (Bookmark bookmark : bookmarks) {
+                if (find(byLocation, bookmark.getLocation(), folder, false) != null) continue;
+
+                attach(folder, bookmark);
+                added++;
+            }
+        }
+        if (added > 0) changed(folder);
+
+        return added;
+    }
+
+    /**
+     * Find or create a folder.
+     *
+     * @param parent the folder the folder is in.
+     * @param name   the name of the folder.
+     * @return the folder with the name in the parent, created if there wasn't one.
+     */
+    public Bookmark addFolder(Bookmark parent, String name) {
+        final Bookmark folder;
+        synchronized (this) {
+            Bookmark existing = find(byName, name, parent, true);
+            if (existing != null) return existing;
+
+            folder = Bookmark.createFolder(name);
+            attach(parent, folder);
+        }
+        changed(parent);
+
+        return folder;
+    }
+
+    /**
+     * Remove a bookmark, or a folder and everything in it.
+     */
+    public void remove(Bookmark bookmark) {
+        final Bookmark folder;
+        synchronized (this) {
+            folder = bookmark.parent;
+            if (folder == null) return;
+
+            folder.children.remove(bookmark);
+            detach(bookmark);
+        }
+        changed(folder);
+    }
+
+    /**
+     * @return true if a location is bookmarked in any folder.
+     */
+    public synchronized boolean isBookmarked(String location) {
+        return byLocation.containsKey(location);
+    }
+
+    /**
+     * @return the bookmarks of a location, in any folder.
+     */
+    public synchronized List<Bookmark> findByLocation(String location) {
+        return new ArrayList<>(byLocation.getOrDefault(location, Collections.emptyList()));
+    }
+
+    /**
+     * @return the bookmarks and folders with a name, in any folder.
+     */
+    public synchronized List<Bookmark> findByName(String name) {
+        return new ArrayList<>(byName.getOrDefault(name, Collections.emptyList()));
+    }
+
+    /**
+     * Visit every bookmark (not folders), while holding the store's lock so bookmarks don't change underneath.
+     */
+    public synchronized void forEachBookmark(Consumer<Bookmark> action) {
+        for (List<Bookmark> bookmarks : byLocation.values()) {
+            bookmarks.forEach(action);
+        }
+    }
+
+    /** @return the number of bookmarks and folders. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return a count which changes whenever the bookmarks do.
+     */
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Save any unsaved changes now, e.g. as the browser exits.
+     */
+    public void flush() {
+        try {
+            writer.submit(this::save).get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Unable to save bookmarks: " + e);
+        }
+    }
+
+    /**
+     * @return the bookmark with a key in a folder, e.g. the bookmark of a location, or null if there isn't one.
+     */
+    private static Bookmark find(Map<String, List<Bookmark>> index, String key, Bookmark folder, boolean isFolder) {
+        for (Bookmark bookmark : index.getOrDefault(key, Collections.emptyList())) {
+            if (bookmark.parent == folder && bookmark.isFolder() == isFolder) return bookmark;
+        }
+        return null;
+    }
+
+    private void attach(Bookmark folder, Bookmark bookmark) {
+        if (!folder.isFolder()) throw new IllegalArgumentException("Not a bookmark folder: " + folder);
+
+        bookmark.parent = folder;
+        folder.children.add(bookmark);
+        if (bookmark.getLocation() != null) {
+            byLocation.computeIfAbsent(bookmark.getLocation(), key -> new ArrayList<>(1)).add(bookmark);
+        }
+        byName.computeIfAbsent(bookmark.getName(), key -> new ArrayList<>(1)).add(bookmark);
+        size++;
+    }
+
+    private void detach(Bookmark bookmark) {
+        bookmark.parent = null;
+        if (bookmark.getLocation() != null) {
+            unindex(byLocation, bookmark.getLocation(), bookmark);
+        }
+        unindex(byName, bookmark.getName(), bookmark);
+        size--;
+
+        if (bookmark.isFolder()) {
+            for (Bookmark child : bookmark.children) {
+                detach(child);
+            }
+            bookmark.children.clear();
+        }
+    }
+
+    private static void unindex(Map<String, List<Bookmark>> index, String key, Bookmark bookmark) {
+        List<Bookmark> bookmarks = index.get(key);
+        if (bookmarks == null) return;
+        bookmarks.remove(bookmark);
+        if (bookmarks.isEmpty()) index.remove(key);
+    }
+
+    private void changed(Bookmark folder) {
+        synchronized (this) {
+            modifications++;
+            if (file != null && !saveScheduled) {
+                saveScheduled = true;
+                writer.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        for (Listener listener : listeners) {
+            listener.folderChanged(folder);
+        }
+    }
+
+    /**
+     * Write the bookmarks to disk.  Runs on the writer thread.
+     */
+    private void save() {
+        if (file == null) return;
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        synchronized (this) {
+            if (!saveScheduled) return;
+            saveScheduled = false;
+
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(FORMAT_VERSION);
+                writeChildren(out, root);
+            } catch (IOException e) {
+                // writing to memory can't fail.
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        try {
+            StorageUtil.writeAtomically(file, bytes.toByteArray());
+        } catch (IOException e) {
+            System.out.println("Unable to save bookmarks: " + e);
+        }
+    }
+
+    private static void writeChildren(DataOutput out, Bookmark folder) throws IOException {
+        out.writeInt(folder.children.size());
+        for (Bookmark child : folder.children) {
+            out.writeBoolean(child.isFolder());
+            StorageUtil.writeString(out, child.getName());
+            if (child.isFolder()) {
+                writeChildren(out, child);
+            } else {
+                StorageUtil.writeString(out, child.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Read the saved bookmarks.
+     *
+     * @return true if there were saved bookmarks.
+     */
+    private boolean load() {
+        if (file == null || !Files.exists(file)) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                System.out.println("Ignoring saved bookmarks in an unknown format.");
+                return false;
+            }
+            synchronized (this) {
+                readChildren(in, root);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // the file is replaced atomically, so this shouldn't happen; keep what could be read.
+            System.out.println("Unable to load bookmarks: " + e);
+            return true;
+        }
+    }
+
+    private void readChildren(DataInput in, Bookmark folder) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) throw new IOException("Corrupt bookmark folder " + folder.getName());
+
+        for (int i = 0; i < count; i++) {
+            final boolean isFolder = in.readBoolean();
+            final String name = StorageUtil.readString(in, MAX_STRING_BYTES);
+            if (isFolder) {
+                Bookmark child = Bookmark.createFolder(name);
+                attach(folder, child);
+                readChildren(in, child);
+            } else {
+                attach(folder, Bookmark.createBookmark(name, StorageUtil.readString(in, MAX_STRING_BYTES)));
+            }
+        }
+    }
+}
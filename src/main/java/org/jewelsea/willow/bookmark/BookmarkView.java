@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.bookmark;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+
+import org.jewelsea.willow.util.Preconnector;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.jewelsea.willow.util.ResourceUtil.getString;
+
+/**
+ * Shows the bookmarks as a tree of folders.
+ *
+ * Only the visible rows get cells, and a folder's items are only created when it is first opened, so showing thousands
+ * of bookmarks costs about the same as showing a few.
+ */
+public class BookmarkView extends TreeView<Bookmark> {
+    private static final String FOLDER_STYLE_CLASS = "bookmark-folder";
+
+    private final BookmarkStore store = BookmarkStore.getInstance();
+    private final Consumer<String> navigator;
+
+    /** the folders whose items have been created, so they can be updated when the folders change. */
+    private final Map<Bookmark, FolderItem> loadedFolders = new HashMap<>();
+    /** folders changed since the last update, many changes in a row (e.g. an import) are shown in one update. */
+    private final Set<Bookmark> changedFolders = new HashSet<>();
+
+    /**
+     * @param navigator navigates to a bookmarked location the user chose.
+     */
+    public BookmarkView(Consumer<String> navigator) {
+        this.navigator = navigator;
+
+        getStyleClass().add("bookmark-view");
+        setShowRoot(false);
+        setRoot(new FolderItem(store.getRoot()));
+        setCellFactory(tree -> new BookmarkCell());
+        setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER) {
+                open(getSelectionModel().getSelectedItem());
+            }
+        });
+
+        store.addListener(this::folderChanged);
+    }
+
+    private void folderChanged(Bookmark folder) {
+        final boolean updateScheduled;
+        synchronized (changedFolders) {
+            updateScheduled = !changedFolders.isEmpty();
+            changedFolders.add(folder);
+        }
+        if (!updateScheduled) {
+            Platform.runLater(this::update);
+        }
+    }
+
+    private void update() {
+        final List<Bookmark> folders;
+        synchronized (changedFolders) {
+            folders = new ArrayList<>(changedFolders);
+            changedFolders.clear();
+        }
+
+        for (Bookmark folder : folders) {
+            FolderItem item = loadedFolders.get(folder);
+            if (item != null) item.reload();
+        }
+    }
+
+    private void open(TreeItem<Bookmark> item) {
+        if (item == null) return;
+
+        if (item.getValue().isFolder()) {
+            item.setExpanded(!item.isExpanded());
+        } else {
+            navigator.accept(item.getValue().getLocation());
+        }
+    }
+
+    /**
+     * A folder, whose items are created when it is first opened.
+     */
+    private class FolderItem extends TreeItem<Bookmark> {
+        private boolean loaded;
+
+        FolderItem(Bookmark folder) {
+            super(folder);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+
+        @Override
+        public ObservableList<TreeItem<Bookmark>> getChildren() {
+            if (!loaded) {
+                loaded = true;
+                reload();
+            }
+            return super.getChildren();
+        }
+
+        void reload() {
+            loaded = true;
+            loadedFolders.put(getValue(), this);
+
+            // keep the items of sub folders which are still there, so they stay open.
+            final Map<Bookmark, TreeItem<Bookmark>> existing = new HashMap<>();
+            for (TreeItem<Bookmark> child : super.getChildren()) {
+                existing.put(child.getValue(), child);
+            }
+
+            final List<TreeItem<Bookmark>> items = new ArrayList<>();
+            for (Bookmark bookmark : store.getChildren(getValue())) {
+                TreeItem<Bookmark> item = existing.remove(bookmark);
+                if (item == null) {
+                    item = bookmark.isFolder() ? new FolderItem(bookmark) : new TreeItem<>(bookmark);
+                }
+                items.add(item);
+            }
+            for (TreeItem<Bookmark> removed : existing.values()) {
+                forget(removed);
+            }
+
+            super.getChildren().setAll(items);
+        }
+
+        /** stop keeping track of a removed folder and its sub folders. */
+        private void forget(TreeItem<Bookmark> removed) {
+            if (removed instanceof FolderItem && ((FolderItem) removed).loaded) {
+                loadedFolders.remove(removed.getValue());
+                for (TreeItem<Bookmark> child : removed.getChildren()) {
+                    forget(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shows the name of a bookmark, with its location as a tooltip.
+     */
+    private class BookmarkCell extends TreeCell<Bookmark> {
+        private final Tooltip tooltip = new Tooltip();
+
+        BookmarkCell() {
+            final MenuItem forget = new MenuItem(getString("bookmark-view.forget"));
+            forget.setOnAction(event -> {
+                if (getItem() != null) store.remove(getItem());
+            });
+            setContextMenu(new ContextMenu(forget));
+
+            // get ready to go to the bookmark under the mouse.
+            setOnMouseEntered(event -> {
+                if (!isEmpty() && !getItem().isFolder()) Preconnector.getInstance().preconnect(getItem().getLocation());
+            });
+            setOnMouseExited(event -> {
+                if (!isEmpty() && !getItem().isFolder()) Preconnector.getInstance().cancel(getItem().getLocation());
+            });
+            setOnMouseClicked(event -> {
+                if (event.getButton() == MouseButton.PRIMARY && !isEmpty() && !getItem().isFolder()) {
+                    open(getTreeItem());
+                }
+            });
+        }
+
+        @Override
+        protected void updateItem(Bookmark bookmark, boolean empty) {
+            super.updateItem(bookmark, empty);
+
+            getStyleClass().remove(FOLDER_STYLE_CLASS);
+            if (empty || bookmark == null) {
+                setText(null);
+                setTooltip(null);
+                return;
+            }
+
+            setText(bookmark.getName());
+            if (bookmark.isFolder()) {
+                getStyleClass().add(FOLDER_STYLE_CLASS);
+                setTooltip(null);
+            } else {
+                tooltip.setText(bookmark.getLocation());
+                setTooltip(tooltip);
+            }
+        }
+    }
+}
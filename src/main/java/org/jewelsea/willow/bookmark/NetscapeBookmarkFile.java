@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.bookmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes bookmarks in the Netscape bookmark file format, which every browser can export and import.
+ *
+ * The format is loose html: a folder is an H3 heading followed by a DL list of its contents, and a bookmark is a link.
+ * Files are read a tag at a time rather than parsed whole, and bookmarks are added to the store in batches, so
+ * importing thousands of bookmarks takes moments.
+ */
+public class NetscapeBookmarkFile {
+    /** number of bookmarks added to a folder at a time. */
+    private static final int BATCH_SIZE = 500;
+    /** longest tag or text read, so a corrupt file can't exhaust memory. */
+    private static final int MAX_TEXT_LENGTH = 1024 * 1024;
+
+    private static final Pattern HREF = Pattern.compile(
+            "\\bhref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))", Pattern.CASE_INSENSITIVE
+    );
+    private static final Pattern ENTITY = Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z]+);");
+
+    /**
+     * Add the bookmarks in a file to a folder, merging folders with the same names as folders already there.
+     *
+     * @param file   the file to read.
+     * @param folder the folder to put the bookmarks in.
+     * @return the number of bookmarks and folders read.
+     * @throws IOException if the file can't be read, bookmarks read before the problem are kept.
+     */
+    public static int importFrom(Path file, Bookmark folder) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return new Importer(BookmarkStore.getInstance(), folder).read(in);
+        }
+    }
+
+    /**
+     * Write all the bookmarks to a file.
+     *
+     * @param file the file to write, replaced if it exists.
+     * @return the number of bookmarks and folders written.
+     * @throws IOException if the file can't be written.
+     */
+    public static int exportTo(Path file) throws IOException {
+        final BookmarkStore store = BookmarkStore.getInstance();
+
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<!DOCTYPE NETSCAPE-Bookmark-file-1>\n");
+            out.write("<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=UTF-8\">\n");
+            out.write("<TITLE>Bookmarks</TITLE>\n");
+            out.write("<H1>Bookmarks</H1>\n");
+            return writeFolder(out, store, store.getRoot(), "");
+        }
+    }
+
+    private static int writeFolder(BufferedWriter out, BookmarkStore store, Bookmark folder, String indent)
+            throws IOException {
+        int count = 0;
+        out.write(indent + "<DL><p>\n");
+        for (Bookmark bookmark : store.getChildren(folder)) {
+            count++;
+            if (bookmark.isFolder()) {
+                out.write(indent + "    <DT><H3>" + escape(bookmark.getName()) + "</H3>\n");
+                count += writeFolder(out, store, bookmark, indent + "    ");
+            } else {
+                out.write(indent + "    <DT><A HREF=\"" + escape(bookmark.getLocation()) + "\">"
+                        + escape(bookmark.getName()) + "</A>\n");
+            }
+        }
+        out.write(indent + "</DL><p>\n");
+
+        return count;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Reads the tags of a bookmark file in order, adding the folders and bookmarks it finds.
+     */
+    private static class Importer {
+        private final BookmarkStore store;
+        private final Bookmark target;
+
+        /** the folders whose lists are open, the innermost first. */
+        private final Deque<Bookmark> folders = new ArrayDeque<>();
+        /** the folder named by the last heading, whose list comes next. */
+        private Bookmark namedFolder;
+        /** bookmarks read for the current folder but not yet added. */
+        private final List<Bookmark> batch = new ArrayList<>(BATCH_SIZE);
+        private int count;
+
+        /** the location of the link being read, null if not reading a link. */
+        private String href;
+        /** the text of the link or heading being read, null if not reading one. */
+        private StringBuilder text;
+
+        Importer(BookmarkStore store, Bookmark target) {
+            this.store = store;
+            this.target = target;
+        }
+
+        int read(Reader in) throws IOException {
+            try {
+                int c;
+                while ((c = in.read()) != -1) {
+                    if (c == '<') {
+                        handleTag(readTag(in));
+                    } else if (text != null && text.length() < MAX_TEXT_LENGTH) {
+                        text.append((char) c);
+                    }
+                }
+            } finally {
+                flush();
+            }
+
+            return count;
+        }
+
+        private Bookmark currentFolder() {
+            return folders.isEmpty() ? target : folders.peek();
+        }
+
+        private void handleTag(String tag) {
+            final String name = tagName(tag);
+            switch (name) {
+                case "a":
+                    Matcher matcher = HREF.matcher(tag);
+                    if (matcher.find()) {
+                        String value = matcher.group(1) != null ? matcher.group(1)
+                                : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                        href = decode(value).trim();
+                        text = new StringBuilder();
+                    }
+                    break;
+                case "/a":
+                    if (href != null && !href.isEmpty() && !href.startsWith("place:")) {
+                        addBookmark(decode(text.toString()).trim(), href);
+                    }
+                    href = null;
+                    text = null;
+                    break;
+                case "h3":
+                    text = new StringBuilder();
+                    break;
+                case "/h3":
+                    if (text != null) {
+                        flush();
+                        namedFolder = store.addFolder(currentFolder(), decode(text.toString()).trim());
+                        count++;
+                        text = null;
+                    }
+                    break;
+                case "dl":
+                    // the first list is the top folder, after that a list holds the folder named before it.
+                    flush();
+                    if (folders.isEmpty()) {
+                        folders.push(target);
+                    } else {
+                        folders.push(namedFolder != null ? namedFolder : currentFolder());
+                    }
+                    namedFolder = null;
+                    break;
+                case "/dl":
+                    flush();
+                    if (!folders.isEmpty()) folders.pop();
+                    break;
+                default:
+                    // other tags don't affect the bookmarks - no action required.
+                    break;
+            }
+        }
+
+        private void addBookmark(String name, String location) {
+            batch.add(Bookmark.createBookmark(name.isEmpty() ? location : name, location));
+            if (batch.size() == BATCH_SIZE) flush();
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) return;
+
+            count += store.addAll(currentFolder(), batch);
+            batch.clear();
+        }
+
+        /**
+         * @return the text of a tag, up to its closing '>', e.g. A HREF="http://x.com/"
+         */
+        private static String readTag(Reader in) throws IOException {
+            final StringBuilder tag = new StringBuilder();
+            char quote = 0;
+            int c;
+            while ((c = in.read()) != -1 && tag.length() < MAX_TEXT_LENGTH) {
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    // comments may hold unbalanced quotes, so only attribute values are quoted.
+                    if (tag.length() > 0 && tag.charAt(0) != '!') quote = (char) c;
+                } else if (c == '>') {
+                    // a comment only ends at -->
+                    if (!(tag.length() >= 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-')
+                            || tag.toString().endsWith("--")) {
+                        break;
+                    }
+                }
+                tag.append((char) c);
+            }
+
+            return tag.toString();
+        }
+
+        /** @return the lower case name of a tag, with a leading / if it is a closing tag, e.g. "/dl" */
+        private static String tagName(String tag) {
+            int end = tag.startsWith("/") ? 1 : 0;
+            while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+                end++;
+            }
+            return tag.substring(0, end).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @return text with its html character references replaced by the characters they stand for.
+     */
+    static String decode(String text) {
+        if (text.indexOf('&') < 0) return text;
+
+        final Matcher matcher = ENTITY.matcher(text);
+        final StringBuffer decoded = new StringBuffer();
+        while (matcher.find()) {
+            final String entity = matcher.group(1);
+            String replacement;
+            try {
+                if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                    replacement = new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+                } else if (entity.startsWith("#")) {
+                    replacement = new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+                } else {
+                    switch (entity.toLowerCase(Locale.ROOT)) {
+                        case "amp":  replacement = "&"; break;
+                        case "lt":   replacement = "<"; break;
+                        case "gt":   replacement = ">"; break;
+                        case "quot": replacement = "\""; break;
+                        case "apos": replacement = "'"; break;
+                        case "nbsp": replacement = " "; break;
+                        default:     replacement = matcher.group(); break;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // not a valid character, leave the reference as it is.
+                replacement = matcher.group();
+            }
+            matcher.appendReplacement(decoded, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(decoded);
+
+        return decoded.toString();
+    }
+}
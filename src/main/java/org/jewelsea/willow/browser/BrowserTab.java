@@ -19,32 +19,73 @@
  * Contact details: http://jewelsea.wordpress.com
  */
 
+
 package org.jewelsea.willow.browser;
 
+import javafx.beans.value.ChangeListener;
 import javafx.scene.control.Tab;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 
+import static org.jewelsea.willow.util.ResourceUtil.getString;
+
 /**
  * Tab associated with a browser window.
+ *
+ * A tab which hasn't been used for a while may hibernate: it keeps a snapshot of its state and releases its browser.
+ * The browser is brought back from the snapshot the next time it is asked for, e.g. when the tab is selected.
+ * A tab can also start out this way, deferred, so that opening many tabs in the background doesn't create a web view
+ * for each of them up front.
  */
 public class BrowserTab extends Tab {
+    /** style class of a tab whose browser has been released. */
+    public static final String HIBERNATED_STYLE_CLASS = "hibernated";
+
+    private final TabManager tabManager;
+    private BrowserWindow browser;
+
+    /** the state of the tab while it is hibernating, null while it has a browser. */
+    private TabSnapshot snapshot;
+    /** a picture of the tab from the last time it was displayed. */
+    private Image thumbnail;
+    /** when the tab was last selected or deselected. */
+    private long lastActive = System.currentTimeMillis();
+
+    private final ChangeListener<String> titleListener = (observableValue, oldValue, newTitle) -> {
+        // todo we already have a listener for the title, might want to repurpose it...
+        // todo I wonder if the title would be reset correctly if the page has no title.
+        if (newTitle != null && !"".equals(newTitle)) {
+            setText(newTitle);
+        }
+    };
+
+    /** the session changes as the browser navigates. */
+    private final ChangeListener<String> locationListener = (observableValue, oldLoc, newLoc) -> sessionChanged();
+
     /**
-     * @return The browser window associated with this tab
+     * @return The browser window associated with this tab, woken from hibernation if need be.
      */
     public BrowserWindow getBrowser() {
+        if (browser == null) {
+            wake();
+        }
         return browser;
     }
 
-    private BrowserWindow browser = new BrowserWindow();
-
     public BrowserTab(TabManager tabManager) {
-        // set the new browser to open any pop-up windows in a new tab.
-        browser.getView().getEngine().setCreatePopupHandler(popupFeatures -> {
-            final BrowserTab browserTab = new BrowserTab(tabManager);
-            tabManager.addTab(browserTab);
-            return browserTab.browser.getView().getEngine();
-        });
+        this(tabManager, null);
+    }
+
+    /**
+     * @param tabManager the manager of the tab.
+     * @param deferred   the state to create the tab's browser from when it is first needed, or null to create the
+     *                   browser now.
+     */
+    public BrowserTab(TabManager tabManager, TabSnapshot deferred) {
+        this.tabManager = tabManager;
 
         // put some dummy invisible content in the tab otherwise it doesn't show because it has no dimensions.
         Pane spacer = new StackPane();
@@ -52,15 +93,141 @@ public class BrowserTab extends Tab {
         spacer.setMaxWidth(TabManager.TAB_PANE_WIDTH + 35);
         setContent(spacer);
 
-        // add the tab
-        graphicProperty().bind(getBrowser().faviconProperty());
-        getBrowser().getView().getEngine().titleProperty().addListener((observableValue, oldValue, newTitle) -> {
-            // todo we already have a listener for the title, might want to repurpose it...
-            // todo I wonder if the title would be reset correctly if the page has no title.
-            if (newTitle != null && !"".equals(newTitle)) {
-                setText(newTitle);
+        // release the browser's resources when the tab is closed.
+        setOnClosed(event -> release());
+
+        if (deferred == null) {
+            attach(new BrowserWindow());
+        } else {
+            if (deferred.getTitle() != null && !deferred.getTitle().isEmpty()) {
+                setText(deferred.getTitle());
+            } else if (deferred.getLocation() != null && !deferred.getLocation().isEmpty()) {
+                setText(deferred.getLocation());
+            } else {
+                setText(getString("newtab.title"));
             }
+            sleep(deferred);
+        }
+    }
+
+    /**
+     * Make a browser the tab's browser.
+     */
+    private void attach(BrowserWindow newBrowser) {
+        browser = newBrowser;
+
+        // set the new browser to open any pop-up windows in a new tab.
+        // the popup needs its web engine straight away, so its tab can't be deferred.
+        browser.getView().getEngine().setCreatePopupHandler(popupFeatures -> {
+            final BrowserTab browserTab = new BrowserTab(tabManager);
+            tabManager.addTab(browserTab);
+            return browserTab.getBrowser().getView().getEngine();
         });
+
+        // open links the user asks for in the background in deferred tabs.
+        browser.setOnOpenInBackground(tabManager::openInBackground);
+
+        // add the tab
+        graphicProperty().bind(browser.faviconProperty());
+        browser.getView().getEngine().titleProperty().addListener(titleListener);
+        browser.getView().getEngine().locationProperty().addListener(locationListener);
+    }
+
+    /** @return true if the tab has released its browser. */
+    public boolean isHibernating() {
+        return browser == null;
     }
-}
 
+    /** @return true if the tab's browser is loading a page, a tab shouldn't hibernate mid load. */
+    public boolean isLoading() {
+        return browser != null && browser.getView().getEngine().getLoadWorker().isRunning();
+    }
+
+    /**
+     * Release the tab's browser, keeping a snapshot of its state to restore it from.
+     * The selected tab should not hibernate, as its browser is on display.
+     */
+    public void hibernate() {
+        if (browser == null) return;
+
+        final TabSnapshot asleep = browser.snapshot(thumbnail);
+
+        // keep showing the favicon and title the browser had.
+        graphicProperty().unbind();
+        browser.getView().getEngine().titleProperty().removeListener(titleListener);
+        browser.getView().getEngine().locationProperty().removeListener(locationListener);
+        browser.getView().getEngine().setCreatePopupHandler(null);
+        browser.setOnOpenInBackground(null);
+        browser.close();
+        browser = null;
+
+        sleep(asleep);
+    }
+
+    private void sleep(TabSnapshot asleep) {
+        snapshot = asleep;
+        getStyleClass().add(HIBERNATED_STYLE_CLASS);
+        setTooltip(createSnapshotTooltip(asleep));
+    }
+
+    /**
+     * Bring back the tab's browser from its snapshot.
+     */
+    private void wake() {
+        final TabSnapshot restoreFrom = snapshot;
+        snapshot = null;
+        getStyleClass().remove(HIBERNATED_STYLE_CLASS);
+        setTooltip(null);
+
+        attach(new BrowserWindow());
+        if (restoreFrom != null) {
+            browser.restore(restoreFrom);
+        }
+    }
+
+    private void sessionChanged() {
+        tabManager.sessionChanged();
+    }
+
+    /**
+     * @return the state of the tab, without waking it if it is hibernating.
+     */
+    TabSnapshot snapshot() {
+        return browser != null ? browser.snapshot(thumbnail) : snapshot;
+    }
+
+    /**
+     * Release the tab's browser, e.g. when the tab is closed or removed.
+     */
+    void release() {
+        if (browser != null) browser.close();
+    }
+
+    private static Tooltip createSnapshotTooltip(TabSnapshot snapshot) {
+        final Tooltip tooltip = new Tooltip(snapshot.getTitle() != null ? snapshot.getTitle() : snapshot.getLocation());
+        if (snapshot.getThumbnail() != null) {
+            tooltip.setGraphic(new ImageView(snapshot.getThumbnail()));
+        }
+        return tooltip;
+    }
+
+    /**
+     * Take a picture of the tab's browser while it is still on display, e.g. as the tab is deselected.
+     */
+    void captureThumbnail() {
+        if (browser != null && !browser.isClosed()) {
+            Image captured = browser.captureThumbnail();
+            if (captured != null) thumbnail = captured;
+        }
+    }
+
+    /** record that the tab has just been used. */
+    void markActive() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    /** @return when the tab was last selected or deselected, in milliseconds since the epoch. */
+    long getLastActive() {
+        return lastActive;
+    }
+}
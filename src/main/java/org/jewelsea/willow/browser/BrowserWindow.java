@@ -26,38 +26,64 @@ import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Worker;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
 import javafx.scene.effect.BoxBlur;
 import javafx.scene.effect.ColorAdjust;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.*;
+import javafx.scene.transform.Transform;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import org.jewelsea.willow.dialogs.DialogFactory;
 import org.jewelsea.willow.helpers.FavIconHandler;
 import org.jewelsea.willow.helpers.LocationHandler;
 import org.jewelsea.willow.navigation.History;
+import org.jewelsea.willow.navigation.HistoryStore;
+import org.jewelsea.willow.navigation.LocationSuggestions;
 import org.jewelsea.willow.navigation.NavigationHandler;
+import org.jewelsea.willow.pdf.PdfView;
+import org.jewelsea.willow.util.FetchExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.jewelsea.willow.util.ResourceUtil.getString;
-import static org.jewelsea.willow.util.ResourceUtil.copyImageView;
 
 /**
  * A single web browser window to be displayed in a tab.
  */
 public class BrowserWindow {
+    /** width of the thumbnails taken of the browser's display. */
+    public static final double THUMBNAIL_WIDTH = 240;
+
     private final WebView view = new WebView();
     private final History history = new History(this);
     private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper();
     private final ReadOnlyObjectWrapper<ImageView> favicon = new ReadOnlyObjectWrapper<>();
     private final FavIconHandler favIconHandler = FavIconHandler.getInstance();
+    private CompletableFuture<Image> displayedFavicon;
     private final DialogFactory dialogFactory = new DialogFactory(view);
     private final NavigationHandler navHandler = new NavigationHandler(view);
 
+    /** what the browser is displaying: the web view, or a viewer for content the web view can't display. */
+    private final ReadOnlyObjectWrapper<Node> display = new ReadOnlyObjectWrapper<>(view);
+    private PdfView pdfView;
+    private boolean closed;
+
+    /** handles links the user opens in the background with a middle click or shortcut click, may be null. */
+    private Consumer<String> onOpenInBackground;
+    /** true while the rest of a click which opened a link in the background is being swallowed. */
+    private boolean swallowClick;
+
     /** the location the browser engine is currently pointing at (or where the user can type in where to go next). */
     private final TextField locField = new TextField();
 
@@ -71,6 +97,7 @@ public class BrowserWindow {
                 navHandler.navTo(locField.getText());
             }
         });
+        LocationSuggestions.install(locField, navHandler::navTo);
         locField.focusedProperty().addListener((observableValue4, from, to) -> {
             if (to) {
                 Platform.runLater(locField::selectAll);
@@ -89,21 +116,67 @@ public class BrowserWindow {
         // monitor the web view for when it's location changes, so we can update the history lists and other items correctly.
         final WebEngine engine = getView().getEngine();
         engine.locationProperty().addListener((observableValue3, oldLoc1, newLoc) -> {
-            getHistory().executeNav(newLoc); // update the history lists.
+            if (closed) return;              // the page is being unloaded to release the browser.
+            showWebView();                   // a new location replaces any document we were displaying.
+            // update the history lists, remembering new visits across tabs and runs; moving back or forward, restoring
+            // a session or waking a hibernated tab only revisits a location the user already went to.
+            if (getHistory().executeNav(newLoc)) {
+                HistoryStore.getInstance().recordVisit(newLoc);
+            }
             getLocField().setText(newLoc);   // update the location field.
-            favicon.set(copyImageView(favIconHandler.fetchFavIcon(newLoc)));
+            showFavIcon(favIconHandler.getCachedFavIcon(newLoc)); // show any favicon we already know for the site.
+            LocationHandler.handleLocation(this, newLoc); // route pdfs and downloads away from the web view.
+        });
+
+        // remember page titles in the global history, so it can show them with the locations.
+        engine.titleProperty().addListener((observableValue, oldTitle, newTitle) -> {
+            if (closed) return;
+            HistoryStore.getInstance().recordTitle(engine.getLocation(), newTitle);
         });
 
         // monitor the web views loading state so we can provide progress feedback.
         Worker<Void> worker = engine.getLoadWorker();
         worker.stateProperty().addListener((observableValue, oldState, newState) -> {
-            // todo we actually don't have anything interesting to do at the moment.
+            if (closed) return;
+            // once the page has loaded we know which icons it declares, so we can fetch the right favicon.
+            if (newState == Worker.State.SUCCEEDED) {
+                showFavIcon(favIconHandler.fetchFavIcon(
+                        engine.getLocation(),
+                        FavIconHandler.findDeclaredIcons(engine.getDocument(), engine.getLocation()),
+                        this
+                ));
+            }
+            // the web view may have failed because it can't display the content, so find something else which can.
+            if (newState == Worker.State.FAILED) {
+                LocationHandler.handleLoadFailure(this, engine.getLocation());
+            }
         });
 
         worker.exceptionProperty().addListener((observableValue, oldThrowable, newThrowable) ->
                 System.out.println("Browser encountered a load exception: " + newThrowable)
         );
 
+        // open links in the background on a middle click or shortcut click, rather than following them.
+        view.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> {
+            swallowClick = false;
+            if (onOpenInBackground == null) return;
+            if (event.getButton() == MouseButton.MIDDLE
+                    || (event.getButton() == MouseButton.PRIMARY && event.isShortcutDown())) {
+                String link = findLink(event.getX(), event.getY());
+                if (link != null) {
+                    swallowClick = true;
+                    event.consume();
+                    onOpenInBackground.accept(link);
+                }
+            }
+        });
+        view.addEventFilter(MouseEvent.ANY, event -> {
+            if (swallowClick && event.getEventType() != MouseEvent.MOUSE_PRESSED) {
+                event.consume();
+                if (event.getEventType() == MouseEvent.MOUSE_CLICKED) swallowClick = false;
+            }
+        });
+
         // create handlers for javascript actions and status changes.
         engine.setPromptHandler(dialogFactory.createPromptHandler());
         engine.setConfirmHandler(dialogFactory.createConfirmHandler());
@@ -112,11 +185,6 @@ public class BrowserWindow {
                 status.setValue(stringWebEvent.getData())
         );
 
-        // monitor the location url, and if it is a pdf file, then create a pdf viewer for it.
-        getLocField().textProperty().addListener((observableValue, oldLoc, newLoc) ->
-                LocationHandler.handleLocation(view, newLoc)
-        );
-
         // add an effect for disabling and enabling the view.
         getView().disabledProperty().addListener(new ChangeListener<Boolean>() {
             final BoxBlur soften = new BoxBlur();
@@ -137,6 +205,46 @@ public class BrowserWindow {
         });
     }
 
+    /**
+     * @return the location of the link at a point in the web view, or null if there is no link there.
+     */
+    private String findLink(double x, double y) {
+        try {
+            Object href = view.getEngine().executeScript(
+                    "(function(x, y) {" +
+                    "  var e = document.elementFromPoint(x, y);" +
+                    "  while (e && !(e.tagName == 'A' && e.href)) e = e.parentElement;" +
+                    "  return e ? String(e.href) : null;" +
+                    "})(" + x + ", " + y + ")"
+            );
+            return href instanceof String && !((String) href).startsWith("javascript:") ? (String) href : null;
+        } catch (RuntimeException e) {
+            // no document to look in.
+            return null;
+        }
+    }
+
+    /**
+     * Set what happens to links the user opens in the background, with a middle click or shortcut click.
+     *
+     * @param onOpenInBackground receives the location of each link, or null to follow links as usual.
+     */
+    public void setOnOpenInBackground(Consumer<String> onOpenInBackground) {
+        this.onOpenInBackground = onOpenInBackground;
+    }
+
+    /**
+     * Display a favicon for the browser, if it isn't already displayed.
+     *
+     * @param newFavicon the future favicon to display.
+     */
+    private void showFavIcon(CompletableFuture<Image> newFavicon) {
+        if (newFavicon != displayedFavicon) {
+            displayedFavicon = newFavicon;
+            favicon.set(FavIconHandler.createFavIconView(newFavicon));
+        }
+    }
+
     public TextField getLocField() {
         return locField;
     }
@@ -157,13 +265,139 @@ public class BrowserWindow {
         return view;
     }
 
+    /** @return the node displaying the browser's content. */
+    public ReadOnlyObjectProperty<Node> displayProperty() {
+        return display.getReadOnlyProperty();
+    }
+
+    /**
+     * Display a pdf document in place of the web view.
+     *
+     * @param location the location of the document.
+     */
+    public void showPdf(String location) {
+        if (pdfView != null && pdfView.getLocation().equals(location)) return;
+
+        closePdfView();
+        pdfView = new PdfView(location);
+        display.set(pdfView);
+    }
+
+    /**
+     * Display the web view, closing any document displayed in its place.
+     */
+    public void showWebView() {
+        closePdfView();
+        display.set(view);
+    }
+
+    private void closePdfView() {
+        if (pdfView != null) {
+            pdfView.close();
+            pdfView = null;
+        }
+    }
+
     public void navTo(String loc) {
         navHandler.navTo(loc);
     }
+
+    /**
+     * @param thumbnail a picture of the browser to keep with the snapshot, may be null.
+     * @return the state of the browser, from which it can be restored later.
+     */
+    public TabSnapshot snapshot(Image thumbnail) {
+        final WebEngine engine = view.getEngine();
+        return new TabSnapshot(
+                engine.getLocation(),
+                engine.getTitle(),
+                history.getItems(),
+                history.getPointer(),
+                scrollPosition("window.pageXOffset"),
+                scrollPosition("window.pageYOffset"),
+                thumbnail
+        );
+    }
+
+    private double scrollPosition(String script) {
+        try {
+            Object position = view.getEngine().executeScript(script);
+            return position instanceof Number ? ((Number) position).doubleValue() : 0;
+        } catch (RuntimeException e) {
+            // there is no page to scroll.
+            return 0;
+        }
+    }
+
+    /**
+     * Take a small picture of what the browser is displaying.
+     * The browser must be displayed in a scene for the picture to show anything.
+     *
+     * @return the picture, or null if the browser has no size.
+     */
+    public Image captureThumbnail() {
+        final Node node = display.get();
+        if (node.getScene() == null || node.getLayoutBounds().getWidth() <= 0) return null;
+
+        final double scale = THUMBNAIL_WIDTH / node.getLayoutBounds().getWidth();
+        final SnapshotParameters params = new SnapshotParameters();
+        params.setTransform(Transform.scale(scale, scale));
+        return node.snapshot(params, null);
+    }
+
+    /**
+     * Bring back the state of a browser from a snapshot: the history, the location and the scroll position.
+     *
+     * @param snapshot the state to restore.
+     */
+    public void restore(TabSnapshot snapshot) {
+        history.restore(snapshot.getHistoryItems(), snapshot.getHistoryPointer());
+
+        final String location = snapshot.getLocation();
+        if (location == null || location.isEmpty()) return;
+
+        // scroll back to where the reader was once the page has loaded.
+        if (snapshot.getScrollX() != 0 || snapshot.getScrollY() != 0) {
+            final Worker<Void> worker = view.getEngine().getLoadWorker();
+            worker.stateProperty().addListener(new ChangeListener<Worker.State>() {
+                @Override
+                public void changed(ObservableValue<? extends Worker.State> observable, Worker.State oldState, Worker.State newState) {
+                    if (newState == Worker.State.SUCCEEDED) {
+                        view.getEngine().executeScript(
+                                "window.scrollTo(" + snapshot.getScrollX() + ", " + snapshot.getScrollY() + ")"
+                        );
+                    }
+                    if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                            || newState == Worker.State.CANCELLED) {
+                        worker.stateProperty().removeListener(this);
+                    }
+                }
+            });
+        }
+        view.getEngine().load(location);
+    }
+
+    /** @return true once the browser has been closed. */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Release the resources held by the browser once it is no longer displayed, e.g. when its tab is closed.
+     * Cancels any background fetches the browser started and unloads the page, so that WebKit can free its memory.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        FetchExecutor.getInstance().cancelAll(this);
+        closePdfView();
+        view.getEngine().getLoadWorker().cancel();
+        view.getEngine().loadContent("");
+    }
 }
 
 // todo cleanup the javascript prompt handlers as their code could be collapsed.
 // todo log jira issue on browser load work progress not being updated.
-// todo add better favicon support (not just for icos, but for pngs, etc.)
 // todo how to set the save filename.
-// todo file an jira bug request - modifying the list of items in a context menu makes the menus focus model go strange (doesn't appear to...)
\ No newline at end of file
+// todo file an jira bug request - modifying the list of items in a context menu makes the menus focus model go strange (doesn't appear to...)
\ No newline at end of file
@@ -26,6 +26,7 @@ import javafx.scene.control.ProgressBar;
 import javafx.scene.effect.ColorAdjust;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import org.jewelsea.willow.util.BindingScope;
 
 /**
  * A control to monitor worker progress.
@@ -39,9 +40,10 @@ public class LoadingProgressDisplay extends ProgressBar {
      *
      * Assumes the worker is reporting progress as work done on a scale from 0 to 100 (other values indicate indeterminate progress).
      *
-     * @param worker the worker whose progress is to be monitored and displayed.
+     * @param worker   the worker whose progress is to be monitored and displayed.
+     * @param bindings the scope of the monitoring, the display stops monitoring the worker when it is disposed.
      */
-    public LoadingProgressDisplay(Worker worker) {
+    public LoadingProgressDisplay(Worker<?> worker, BindingScope bindings) {
         setMaxWidth(Double.MAX_VALUE);
 
         ColorAdjust bleach = new ColorAdjust();
@@ -50,16 +52,17 @@ public class LoadingProgressDisplay extends ProgressBar {
 
         HBox.setHgrow(this, Priority.ALWAYS);
 
-        visibleProperty().bind(worker.runningProperty());
+        bindings.bind(visibleProperty(), worker.runningProperty());
 
         // as the webview load progresses update progress.
-        worker.workDoneProperty().addListener((observableValue, oldNumber, newNumber) -> {
+        bindings.addListener(worker.workDoneProperty(), (observableValue, oldNumber, newNumber) -> {
             if (newNumber == null) newNumber = -1.0;
             final double newValue = newNumber.doubleValue();
             if (newValue < 0.0 || newValue > 100.0) {
                 setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            } else {
+                setProgress(newValue / 100.0);
             }
-            setProgress(newValue / 100.0);
         });
     }
 
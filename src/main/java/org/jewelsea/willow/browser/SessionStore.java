@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.browser;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.util.Duration;
+import org.jewelsea.willow.util.StorageUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Saves the browser session (the tabs, their histories and scroll positions and the selected tab) so that it can be
+ * restored after a restart or a crash.
+ *
+ * Saves are requested whenever the session changes and coalesced, so a burst of changes is written once.  The
+ * session is captured on the JavaFX application thread, then encoded and written atomically by a background thread,
+ * so a crash mid write leaves the previous session intact.  Scroll positions don't announce their changes, so the
+ * session is also saved periodically.
+ */
+public class SessionStore {
+    /** name of the writing thread. */
+    public static final String WRITER_THREAD_NAME = "willow-session-writer";
+
+    /** name of the storage area used for the session. */
+    private static final String STORAGE_AREA = "session";
+    private static final String SESSION_FILE = "session.dat";
+    /** identifies the file format, bumped when it changes; files in other formats are ignored. */
+    private static final int FORMAT_VERSION = 1;
+    /** longest string we will read, anything longer means the file is corrupt. */
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+    /** most tabs we will read, any more means the file is corrupt. */
+    private static final int MAX_TABS = 10000;
+    /** most history items of a tab we will read, any more means the file is corrupt. */
+    private static final int MAX_HISTORY_ITEMS = 10000;
+
+    /** how long to wait for more changes before saving. */
+    private static final Duration SAVE_DELAY = Duration.seconds(1);
+    /** how often the session is saved to pick up changes which aren't announced, such as scrolling. */
+    private static final Duration PERIODIC_SAVE_INTERVAL = Duration.seconds(30);
+
+    /**
+     * A saved session.
+     */
+    public static class Session {
+        private final List<TabSnapshot> tabs;
+        private final int selectedIndex;
+
+        public Session(List<TabSnapshot> tabs, int selectedIndex) {
+            this.tabs = Collections.unmodifiableList(tabs);
+            this.selectedIndex = selectedIndex;
+        }
+
+        /** @return the tabs, in tab order. */
+        public List<TabSnapshot> getTabs() {
+            return tabs;
+        }
+
+        /** @return the index of the selected tab. */
+        public int getSelectedIndex() {
+            return selectedIndex;
+        }
+    }
+
+    /** the session file or null if the session can't be stored. */
+    private final Path file;
+    private final Supplier<Session> capture;
+    private final PauseTransition saveDelay = new PauseTransition(SAVE_DELAY);
+    private final Timeline periodicSave;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, WRITER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param capture captures the current session, called on the JavaFX application thread.
+     */
+    public SessionStore(Supplier<Session> capture) {
+        this.capture = capture;
+
+        Path sessionFile = null;
+        try {
+            sessionFile = StorageUtil.getStorageDir(STORAGE_AREA).resolve(SESSION_FILE);
+        } catch (IOException e) {
+            System.out.println("Unable to create session storage, the session will not be saved: " + e);
+        }
+        file = sessionFile;
+
+        saveDelay.setOnFinished(event -> saveInBackground());
+        periodicSave = new Timeline(new KeyFrame(PERIODIC_SAVE_INTERVAL, event -> requestSave()));
+        periodicSave.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    /**
+     * Start saving the session as it changes.
+     */
+    public void start() {
+        periodicSave.play();
+    }
+
+    /**
+     * Ask for the session to be saved soon.  Must be called on the JavaFX application thread.
+     */
+    public void requestSave() {
+        if (file == null) return;
+        saveDelay.playFromStart();
+    }
+
+    /**
+     * Save the session now and wait for it to be written, e.g. as the browser exits.
+     * Must be called on the JavaFX application thread.
+     */
+    public void saveNow() {
+        if (file == null) return;
+
+        saveDelay.stop();
+        periodicSave.stop();
+        final byte[] data = encode(capture.get());
+        try {
+            writer.submit(() -> write(data)).get();
+        } catch (Exception e) {
+            System.out.println("Unable to save session: " + e);
+        }
+    }
+
+    private void saveInBackground() {
+        final byte[] data = encode(capture.get());
+        writer.execute(() -> write(data));
+    }
+
+    private void write(byte[] data) {
+        try {
+            StorageUtil.writeAtomically(file, data);
+        } catch (IOException e) {
+            System.out.println("Unable to save session: " + e);
+        }
+    }
+
+    /**
+     * @return the saved session, or null if there is no saved session or it can't be read.
+     */
+    public Session load() {
+        if (file == null || !Files.exists(file)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) return null;
+
+            final int selectedIndex = in.readInt();
+            final int tabCount = readCount(in, MAX_TABS);
+            final List<TabSnapshot> tabs = new ArrayList<>(tabCount);
+            for (int i = 0; i < tabCount; i++) {
+                String location = StorageUtil.readString(in, MAX_STRING_BYTES);
+                String title = StorageUtil.readString(in, MAX_STRING_BYTES);
+                int historySize = readCount(in, MAX_HISTORY_ITEMS);
+                List<String> historyItems = new ArrayList<>(historySize);
+                for (int j = 0; j < historySize; j++) {
+                    historyItems.add(StorageUtil.readString(in, MAX_STRING_BYTES));
+                }
+                int historyPointer = in.readInt();
+                double scrollX = in.readDouble();
+                double scrollY = in.readDouble();
+                tabs.add(new TabSnapshot(location, title, historyItems, historyPointer, scrollX, scrollY, null));
+            }
+
+            return new Session(tabs, selectedIndex);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to read saved session: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the number of items which follow, so a corrupt count can't exhaust memory.
+     *
+     * @param max the most items expected, anything more means the data is corrupt.
+     */
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > max) throw new IOException("Corrupt data, count of " + count + " items.");
+        return count;
+    }
+
+    /**
+     * Encode a session in a compact binary form.  Thumbnails are not saved.
+     */
+    private static byte[] encode(Session session) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(session.getSelectedIndex());
+            out.writeInt(session.getTabs().size());
+            for (TabSnapshot tab : session.getTabs()) {
+                StorageUtil.writeString(out, tab.getLocation());
+                StorageUtil.writeString(out, tab.getTitle());
+                out.writeInt(tab.getHistoryItems().size());
+                for (String item : tab.getHistoryItems()) {
+                    StorageUtil.writeString(out, item);
+                }
+                out.writeInt(tab.getHistoryPointer());
+                out.writeDouble(tab.getScrollX());
+                out.writeDouble(tab.getScrollY());
+            }
+        } catch (IOException e) {
+            // writing to memory can't fail.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
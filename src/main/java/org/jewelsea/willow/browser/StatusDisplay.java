@@ -21,18 +21,19 @@
 
 package org.jewelsea.willow.browser;
 
-import javafx.beans.binding.StringExpression;
+import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Text;
+import org.jewelsea.willow.util.BindingScope;
 
 /** a display to monitor status messages from the webview. */
 public class StatusDisplay extends HBox {
 
-    public StatusDisplay(StringExpression statusProperty) {
-        Text statusText = new Text();
-        statusText.textProperty().bind(statusProperty);
+    private final Text statusText = new Text();
+
+    public StatusDisplay() {
         HBox.setMargin(statusText, new Insets(1, 6, 3, 6));
 
         setEffect(new DropShadow());
@@ -45,4 +46,15 @@ public class StatusDisplay extends HBox {
         );
     }
 
+    /**
+     * Show the status messages of a browser.
+     *
+     * @param statusProperty the status messages.
+     * @param bindings       the scope of the monitoring, the display stops showing the messages when it is disposed.
+     */
+    public void monitor(ObservableValue<String> statusProperty, BindingScope bindings) {
+        bindings.bind(statusText.textProperty(), statusProperty);
+        bindings.onDispose(() -> statusText.setText(""));
+    }
+
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.browser;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Puts browser tabs which aren't being used into hibernation, releasing their web views.
+ *
+ * A tab hibernates when it hasn't been selected for the idle timeout, or sooner when there are too many live tabs or
+ * the heap is short of space, least recently used tabs first.  WebKit's native memory can't be measured from Java, so
+ * the number of live tabs stands in for a native memory budget.  The selected tab and tabs which are loading never
+ * hibernate.
+ */
+public class TabHibernator {
+    /** default time a tab may go unused before it hibernates. */
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.minutes(30);
+    /** default max number of tabs with a live web view. */
+    public static final int DEFAULT_MAX_LIVE_TABS = 12;
+    /** default fraction of the max heap which may be used before tabs start to hibernate. */
+    public static final double DEFAULT_HEAP_BUDGET = 0.75;
+
+    /** how often the tabs are checked. */
+    private static final Duration CHECK_INTERVAL = Duration.seconds(30);
+
+    private final TabPane tabPane;
+    private final Timeline checker;
+
+    private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private int maxLiveTabs = DEFAULT_MAX_LIVE_TABS;
+    private double heapBudget = DEFAULT_HEAP_BUDGET;
+
+    /**
+     * @param tabPane the pane holding the browser tabs.
+     */
+    public TabHibernator(TabPane tabPane) {
+        this.tabPane = tabPane;
+
+        checker = new Timeline(new KeyFrame(CHECK_INTERVAL, event -> check()));
+        checker.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    /** Start checking the tabs periodically. */
+    public void start() {
+        checker.play();
+    }
+
+    /** Stop checking the tabs, tabs already hibernating stay hibernating until selected. */
+    public void stop() {
+        checker.stop();
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /** @param idleTimeout time a tab may go unused before it hibernates. */
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getMaxLiveTabs() {
+        return maxLiveTabs;
+    }
+
+    /** @param maxLiveTabs max number of tabs with a live web view, the selected tab is always live. */
+    public void setMaxLiveTabs(int maxLiveTabs) {
+        this.maxLiveTabs = Math.max(1, maxLiveTabs);
+    }
+
+    public double getHeapBudget() {
+        return heapBudget;
+    }
+
+    /** @param heapBudget fraction of the max heap which may be used before tabs start to hibernate. */
+    public void setHeapBudget(double heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Hibernate the tabs which are idle or over budget.  Must be called on the JavaFX application thread.
+     */
+    public void check() {
+        final Tab selected = tabPane.getSelectionModel().getSelectedItem();
+
+        // find the tabs which could hibernate, least recently used first.
+        final List<BrowserTab> candidates = new ArrayList<>();
+        int liveTabs = 0;
+        for (Tab tab : tabPane.getTabs()) {
+            BrowserTab browserTab = (BrowserTab) tab;
+            if (browserTab.isHibernating()) continue;
+            liveTabs++;
+            if (tab != selected && !browserTab.isLoading()) {
+                candidates.add(browserTab);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(BrowserTab::getLastActive));
+
+        // the heap won't shrink until the released pages are collected, so only release one tab per check for it.
+        boolean heapShort = isHeapShort();
+        final long idleSince = System.currentTimeMillis() - (long) idleTimeout.toMillis();
+        for (BrowserTab tab : candidates) {
+            boolean idle = tab.getLastActive() < idleSince;
+            if (idle || liveTabs > maxLiveTabs || heapShort) {
+                tab.hibernate();
+                liveTabs--;
+                heapShort = false;
+            }
+        }
+    }
+
+    private boolean isHeapShort() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long used = runtime.totalMemory() - runtime.freeMemory();
+        return used > runtime.maxMemory() * heapBudget;
+    }
+}
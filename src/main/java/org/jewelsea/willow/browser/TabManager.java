@@ -23,13 +23,20 @@ package org.jewelsea.willow.browser;
 
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Worker;
 import javafx.scene.control.*;
 import javafx.scene.effect.ColorAdjust;
 import javafx.scene.image.ImageView;
 import org.jewelsea.willow.util.ResourceUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.jewelsea.willow.util.ResourceUtil.getString;
 
 /**
@@ -39,6 +46,9 @@ public class TabManager {
 
     public static final double TAB_PANE_WIDTH = 400;
 
+    /** number of restored tabs loaded in the background after the selected tab, the rest wait to be selected. */
+    public static final int RESTORE_WARM_TABS = 2;
+
     /**
      * representation of the current browser.
      */
@@ -60,6 +70,16 @@ public class TabManager {
      */
     final private TextField chromeLocField;
 
+    /**
+     * releases the browsers of tabs which aren't being used.
+     */
+    final private TabHibernator hibernator = new TabHibernator(tabPane);
+
+    /**
+     * saves the tabs so that they can be restored after a restart.
+     */
+    final private SessionStore sessionStore = new SessionStore(this::captureSession);
+
     public TabManager(TextField locField) {
         this.chromeLocField = locField;
 
@@ -77,12 +97,22 @@ public class TabManager {
             // todo file jira setting max width on a initialTab pane is buggy as the close symbol is not usable if you change initialTab from closable to not closable.
             // todo file jira on initialTab pane set policy for closing icon display.
             tabPane.setTabMaxWidth(Math.max(50, TAB_PANE_WIDTH / Math.max(1, tabPane.getTabs().size() * 0.7)));
+            sessionChanged();
         });
 
         // monitor the selected tab in the tab pane so that we can set the TabManager's browser property appropriately.
-        tabPane.getSelectionModel().selectedItemProperty().addListener((observableValue, oldTab, newTab) ->
-                browser.set(((BrowserTab) newTab).getBrowser())
-        );
+        // a hibernating tab wakes when it is selected, the tab being left is pictured for its hibernation tooltip.
+        tabPane.getSelectionModel().selectedItemProperty().addListener((observableValue, oldTab, newTab) -> {
+            if (oldTab != null) {
+                ((BrowserTab) oldTab).captureThumbnail();
+                ((BrowserTab) oldTab).markActive();
+            }
+            if (newTab != null) {
+                ((BrowserTab) newTab).markActive();
+                browser.set(((BrowserTab) newTab).getBrowser());
+            }
+            sessionChanged();
+        });
 
         // add the initialTab to the tabset.
         addTab(new BrowserTab(this));
@@ -101,6 +131,8 @@ public class TabManager {
             newTab.setText(getString("newtab.title"));
             addTab(newTab);
         });
+
+        hibernator.start();
     }
 
     public BrowserWindow getBrowser() {
@@ -118,6 +150,13 @@ public class TabManager {
         return tabPane;
     }
 
+    /**
+     * @return the hibernator which releases the browsers of unused tabs, e.g. to configure its budget.
+     */
+    public TabHibernator getHibernator() {
+        return hibernator;
+    }
+
     /**
      * @return a button for opening a new tab.
      */
@@ -125,6 +164,121 @@ public class TabManager {
         return newTabButton;
     }
 
+    /**
+     * Replace the tabs with the tabs saved in the last session, if there are any, and start saving the session.
+     *
+     * Only the selected tab is loaded straight away.  A few of the tabs next to it are then loaded one after another,
+     * the rest are deferred until they are selected, so a restore doesn't make requests for every tab at once.
+     *
+     * @return true if a session was restored.
+     */
+    public boolean restoreSession() {
+        final SessionStore.Session session = sessionStore.load();
+        sessionStore.start();
+        if (session == null || session.getTabs().isEmpty()) return false;
+
+        final List<Tab> initialTabs = new ArrayList<>(tabPane.getTabs());
+        final List<BrowserTab> restoredTabs = new ArrayList<>();
+        for (TabSnapshot snapshot : session.getTabs()) {
+            restoredTabs.add(new BrowserTab(this, snapshot));
+        }
+        tabPane.getTabs().addAll(restoredTabs);
+        final int selectedIdx = Math.max(0, Math.min(restoredTabs.size() - 1, session.getSelectedIndex()));
+        tabPane.getSelectionModel().select(restoredTabs.get(selectedIdx));
+
+        for (Tab tab : initialTabs) {
+            ((BrowserTab) tab).release();
+        }
+        tabPane.getTabs().removeAll(initialTabs);
+
+        // warm the nearest tabs once the selected tab has loaded, nearest first and to the right before the left.
+        final List<BrowserTab> warmOrder = new ArrayList<>();
+        for (int distance = 1; distance < restoredTabs.size() && warmOrder.size() < RESTORE_WARM_TABS; distance++) {
+            if (selectedIdx + distance < restoredTabs.size()) warmOrder.add(restoredTabs.get(selectedIdx + distance));
+            if (selectedIdx - distance >= 0 && warmOrder.size() < RESTORE_WARM_TABS) warmOrder.add(restoredTabs.get(selectedIdx - distance));
+        }
+        whenLoaded(restoredTabs.get(selectedIdx).getBrowser(), () -> warm(warmOrder, 0));
+
+        return true;
+    }
+
+    /**
+     * Load a list of deferred tabs one at a time, skipping tabs which were closed or woken in the meantime.
+     */
+    private void warm(List<BrowserTab> tabs, int idx) {
+        if (idx >= tabs.size()) return;
+
+        final BrowserTab tab = tabs.get(idx);
+        if (!tab.isHibernating() || !tabPane.getTabs().contains(tab)) {
+            warm(tabs, idx + 1);
+            return;
+        }
+        whenLoaded(tab.getBrowser(), () -> warm(tabs, idx + 1));
+    }
+
+    private static void whenLoaded(BrowserWindow browser, Runnable action) {
+        final Worker<Void> worker = browser.getView().getEngine().getLoadWorker();
+        worker.stateProperty().addListener(new ChangeListener<Worker.State>() {
+            @Override
+            public void changed(ObservableValue<? extends Worker.State> observable, Worker.State oldState, Worker.State newState) {
+                if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                        || newState == Worker.State.CANCELLED) {
+                    worker.stateProperty().removeListener(this);
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Save the session now, e.g. as the browser exits.
+     */
+    public void saveSession() {
+        sessionStore.saveNow();
+    }
+
+    /**
+     * Note that the tabs have changed, so the session should be saved.
+     */
+    void sessionChanged() {
+        sessionStore.requestSave();
+    }
+
+    private SessionStore.Session captureSession() {
+        final List<TabSnapshot> snapshots = new ArrayList<>();
+        for (Tab tab : tabPane.getTabs()) {
+            snapshots.add(((BrowserTab) tab).snapshot());
+        }
+        return new SessionStore.Session(snapshots, tabPane.getSelectionModel().getSelectedIndex());
+    }
+
+    /**
+     * Open a location in a new tab without selecting it.  The tab is deferred: it doesn't create its browser until it
+     * is first selected.
+     *
+     * @param location the location to open.
+     * @return the new tab.
+     */
+    public BrowserTab openInBackground(String location) {
+        return addBackgroundTab(
+                new TabSnapshot(location, null, Collections.emptyList(), 0, 0, 0, null)
+        );
+    }
+
+    /**
+     * Add a deferred tab after the selected tab, without selecting it.
+     *
+     * @param deferred the state to create the tab's browser from when it is first selected.
+     * @return the new tab.
+     */
+    public BrowserTab addBackgroundTab(TabSnapshot deferred) {
+        final BrowserTab tab = new BrowserTab(this, deferred);
+        final int selectedIdx = tabPane.getSelectionModel().getSelectedIndex();
+        tabPane.getTabs().add(selectedIdx + 1, tab);
+
+        return tab;
+    }
+
     /**
      * Places a new tab under management.
      * Selects the newly added tab so that it is visible.
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.browser;
+
+import javafx.scene.image.Image;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of a browser tab, enough to bring the tab back after its browser has been released.
+ */
+public final class TabSnapshot {
+    private final String location;
+    private final String title;
+    private final List<String> historyItems;
+    private final int historyPointer;
+    private final double scrollX;
+    private final double scrollY;
+    private final Image thumbnail;
+
+    /**
+     * @param location       the location the tab was displaying.
+     * @param title          the title of the tab.
+     * @param historyItems   the locations in the tab's history, earliest first.
+     * @param historyPointer index into the history items of the location displayed.
+     * @param scrollX        the horizontal scroll position of the page.
+     * @param scrollY        the vertical scroll position of the page.
+     * @param thumbnail      a picture of the tab the last time it was displayed, may be null.
+     */
+    public TabSnapshot(String location, String title, List<String> historyItems, int historyPointer,
+                       double scrollX, double scrollY, Image thumbnail) {
+        this.location = location;
+        this.title = title;
+        this.historyItems = Collections.unmodifiableList(historyItems);
+        this.historyPointer = historyPointer;
+        this.scrollX = scrollX;
+        this.scrollY = scrollY;
+        this.thumbnail = thumbnail;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public List<String> getHistoryItems() {
+        return historyItems;
+    }
+
+    public int getHistoryPointer() {
+        return historyPointer;
+    }
+
+    public double getScrollX() {
+        return scrollX;
+    }
+
+    public double getScrollY() {
+        return scrollY;
+    }
+
+    public Image getThumbnail() {
+        return thumbnail;
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.download;
+
+import javafx.application.Platform;
+import javafx.beans.property.*;
+import org.jewelsea.willow.util.FetchExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single file transfer from a location to a local file.
+ *
+ * The transfer runs in the background on the FetchExecutor, copying through NIO channels with a large buffer.
+ * Large files served by hosts which accept byte range requests are split into segments which are transferred in
+ * parallel, and such downloads can be paused and resumed where they left off.  Each range request carries the file's
+ * validator in an If-Range header, so if the file changes on the server the download starts again from the beginning
+ * rather than stitching together parts of two versions of the file.
+ *
+ * The properties of a download are only updated on the JavaFX application thread, so they can be bound to the ui.
+ */
+public class Download {
+    /** the states a download can be in. */
+    public enum State { CONNECTING, DOWNLOADING, PAUSED, COMPLETED, FAILED, CANCELLED }
+
+    /** size of the buffer used by each segment to copy data. */
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /** files larger than this are transferred in parallel segments (if the host supports ranges). */
+    private static final long SEGMENT_THRESHOLD = 8 * 1024 * 1024;
+    /** max number of segments transferred in parallel. */
+    private static final int MAX_SEGMENTS = 4;
+    /** min interval between updates of the download's properties. */
+    private static final long UPDATE_INTERVAL_MILLIS = 250;
+    /** value used for the length of a file whose length the server didn't tell us. */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private final String location;
+    private final File file;
+
+    private final ReadOnlyObjectWrapper<State> state = new ReadOnlyObjectWrapper<>(State.CONNECTING);
+    private final ReadOnlyLongWrapper bytesDone = new ReadOnlyLongWrapper(0);
+    private final ReadOnlyLongWrapper totalBytes = new ReadOnlyLongWrapper(UNKNOWN_LENGTH);
+    private final ReadOnlyDoubleWrapper bytesPerSecond = new ReadOnlyDoubleWrapper(0);
+    private final ReadOnlyStringWrapper error = new ReadOnlyStringWrapper();
+
+    // transfer state, guarded by this download.
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean rangesSupported = false;
+    private long length = UNKNOWN_LENGTH;
+    /** the strong ETag or Last-Modified date of the file when the download started, null if the server sent neither. */
+    private String validator;
+    private FileChannel channel;
+    private int activeWorkers = 0;
+    /** the state the workers should stop for, CONNECTING if the file changed and the download must start again. */
+    private volatile State requestedStop = null;
+    private Exception failure;
+
+    // progress reporting.
+    private final AtomicLong transferred = new AtomicLong();
+    private final AtomicLong lastUpdateTime = new AtomicLong();
+    private long lastUpdateBytes = 0;
+
+    /**
+     * Create a download, it does not start until {@link #start()} is called.
+     *
+     * @param location the location to download from.
+     * @param file     the file to save the download to.
+     */
+    public Download(String location, File file) {
+        this.location = location;
+        this.file = file;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public ReadOnlyObjectProperty<State> stateProperty() {
+        return state.getReadOnlyProperty();
+    }
+
+    /** @return number of bytes transferred so far. */
+    public ReadOnlyLongProperty bytesDoneProperty() {
+        return bytesDone.getReadOnlyProperty();
+    }
+
+    /** @return length of the file or UNKNOWN_LENGTH if the length is not known. */
+    public ReadOnlyLongProperty totalBytesProperty() {
+        return totalBytes.getReadOnlyProperty();
+    }
+
+    /** @return the current rate of transfer. */
+    public ReadOnlyDoubleProperty bytesPerSecondProperty() {
+        return bytesPerSecond.getReadOnlyProperty();
+    }
+
+    /** @return a description of why the download failed, or null if it didn't fail. */
+    public ReadOnlyStringProperty errorProperty() {
+        return error.getReadOnlyProperty();
+    }
+
+    /**
+     * @return true if a paused (or failed) download will carry on from where it left off when resumed,
+     * rather than start again from the beginning.
+     */
+    public synchronized boolean isResumable() {
+        return rangesSupported;
+    }
+
+    /**
+     * Start the download.
+     */
+    public synchronized void start() {
+        requestedStop = null;
+        failure = null;
+        setState(State.CONNECTING);
+        submitWorker(null);
+    }
+
+    /**
+     * Pause the download, it may be continued with {@link #resume()}.
+     */
+    public void pause() {
+        stop(State.PAUSED);
+    }
+
+    /**
+     * Cancel the download and delete anything which has been saved so far.
+     */
+    public void cancel() {
+        stop(State.CANCELLED);
+    }
+
+    /**
+     * Resume a paused or failed download.
+     * If the host doesn't support ranges, the download starts again from the beginning.
+     */
+    public synchronized void resume() {
+        if (activeWorkers > 0) return;
+
+        if (!rangesSupported || segments.isEmpty()) {
+            segments.clear();
+            transferred.set(0);
+            start();
+            return;
+        }
+
+        requestedStop = null;
+        failure = null;
+        setState(State.DOWNLOADING);
+        try {
+            openChannel(false);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                submitWorker(segment);
+            }
+        }
+        if (activeWorkers == 0) {
+            finishTransfer();
+        }
+    }
+
+    private void stop(State stopState) {
+        synchronized (this) {
+            if (activeWorkers == 0) {
+                // nothing is running, so we can move to the new state immediately.
+                State current = state.get();
+                if (current == State.COMPLETED || current == State.CANCELLED) return;
+                if (stopState == State.CANCELLED) deleteFile();
+                setState(stopState);
+                return;
+            }
+            requestedStop = stopState;
+        }
+
+        // disconnect the running workers, they will notice the stop request and finish up.
+        FetchExecutor.getInstance().cancelAll(this);
+    }
+
+    /**
+     * Run a worker, transferring data for a segment.
+     *
+     * @param segment the segment to transfer, or null to probe the location and transfer the first segment(s).
+     */
+    private void runWorker(Segment segment) {
+        try {
+            if (segment == null) {
+                probe();
+            } else {
+                transferSegment(segment, null);
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                if (requestedStop == null && failure == null) {
+                    failure = e;
+                    requestedStop = State.FAILED;
+                    // stop the other segments, there is no point carrying on.
+                    FetchExecutor.getInstance().cancelAll(this);
+                }
+            }
+        } finally {
+            workerFinished();
+        }
+    }
+
+    /**
+     * Connect to the location and work out how to transfer it.
+     */
+    private void probe() throws IOException {
+        URLConnection connection = FetchExecutor.getInstance().openConnection(new URL(location));
+        long contentLength = connection.getContentLengthLong();
+        boolean acceptsRanges = false;
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server responded " + http.getResponseCode() + " " + http.getResponseMessage());
+            }
+            acceptsRanges = "bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"));
+        }
+        // weak ETags can't be used in If-Range.
+        String etag = connection.getHeaderField("ETag");
+        String fileValidator = etag != null && !etag.startsWith("W/") ? etag : connection.getHeaderField("Last-Modified");
+
+        Segment first;
+        List<Segment> parallelSegments = new ArrayList<>();
+        synchronized (this) {
+            // without a validator we couldn't tell whether the ranges come from the same version of the file.
+            rangesSupported = acceptsRanges && contentLength > 0 && fileValidator != null;
+            validator = fileValidator;
+            length = contentLength;
+            segments.clear();
+            transferred.set(0);
+
+            if (rangesSupported && contentLength > SEGMENT_THRESHOLD) {
+                // split the file into parallel segments.
+                long segmentLength = (contentLength + MAX_SEGMENTS - 1) / MAX_SEGMENTS;
+                for (long start = 0; start < contentLength; start += segmentLength) {
+                    segments.add(new Segment(start, Math.min(start + segmentLength, contentLength)));
+                }
+            } else {
+                segments.add(new Segment(0, contentLength));
+            }
+            first = segments.get(0);
+            parallelSegments.addAll(segments.subList(1, segments.size()));
+
+            // a fresh transfer starts from the first byte, so drop anything left by an earlier, longer file.
+            openChannel(true);
+            if (requestedStop != null) return;
+
+            for (Segment segment : parallelSegments) {
+                submitWorker(segment);
+            }
+        }
+
+        Platform.runLater(() -> totalBytes.set(contentLength));
+        setState(State.DOWNLOADING);
+
+        // transfer the first segment using the connection we already have open.
+        transferSegment(first, connection);
+    }
+
+    /**
+     * Transfer the remaining data of a segment to the file.
+     *
+     * @param segment    the segment to transfer.
+     * @param connection an open connection positioned at the start of the segment, or null to open a new connection.
+     */
+    private void transferSegment(Segment segment, URLConnection connection) throws IOException {
+        if (connection == null) {
+            connection = FetchExecutor.getInstance().openConnection(new URL(location));
+            if (segment.end != UNKNOWN_LENGTH) {
+                connection.setRequestProperty("Range", "bytes=" + segment.position + "-" + (segment.end - 1));
+                // only send the range if the file is still the one the rest of the download came from.
+                connection.setRequestProperty("If-Range", validator);
+            }
+            if (connection instanceof HttpURLConnection) {
+                int responseCode = ((HttpURLConnection) connection).getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    ((HttpURLConnection) connection).disconnect();
+                    restartFromBeginning();
+                    return;
+                }
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Server did not honor the requested range for " + location);
+                }
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (InputStream is = connection.getInputStream();
+             ReadableByteChannel source = Channels.newChannel(is)) {
+            while (!segment.isComplete() && requestedStop == null) {
+                buffer.clear();
+                if (segment.end != UNKNOWN_LENGTH) {
+                    buffer.limit((int) Math.min(BUFFER_SIZE, segment.end - segment.position));
+                }
+                int read = source.read(buffer);
+                if (read < 0) {
+                    if (segment.end == UNKNOWN_LENGTH) {
+                        segment.end = segment.position;
+                        break;
+                    }
+                    throw new IOException("Connection closed before all of " + location + " was received.");
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    segment.position += channel.write(buffer, segment.position);
+                }
+                transferred.addAndGet(read);
+                reportProgress(false);
+            }
+        }
+    }
+
+    /**
+     * The file has changed on the server since the download started, so stop the workers and start again from the
+     * beginning once they have finished.
+     */
+    private void restartFromBeginning() {
+        synchronized (this) {
+            if (requestedStop != null) return;
+            requestedStop = State.CONNECTING;
+        }
+        FetchExecutor.getInstance().cancelAll(this);
+    }
+
+    /**
+     * Submit a worker to the FetchExecutor.
+     *
+     * @param segment the segment to transfer, or null to probe the location and transfer the first segment(s).
+     */
+    private synchronized void submitWorker(Segment segment) {
+        activeWorkers++;
+        // the worker must be accounted for exactly once, whether it runs or is cancelled before it gets to run.
+        final AtomicBoolean accountedFor = new AtomicBoolean(false);
+        FetchExecutor.getInstance().submit(this, FetchExecutor.hostOf(location), () -> {
+            if (!accountedFor.getAndSet(true)) {
+                runWorker(segment);
+            }
+            return null;
+        }).whenComplete((result, e) -> {
+            if (!accountedFor.getAndSet(true)) {
+                workerFinished();
+            }
+        });
+    }
+
+    /**
+     * Called as each worker finishes, when the last worker finishes the download moves to its next state.
+     */
+    private void workerFinished() {
+        synchronized (this) {
+            activeWorkers--;
+            if (activeWorkers > 0) return;
+        }
+        finishTransfer();
+    }
+
+    private synchronized void finishTransfer() {
+        reportProgress(true);
+        closeChannel();
+
+        if (requestedStop == State.CANCELLED) {
+            deleteFile();
+            setState(State.CANCELLED);
+        } else if (failure != null) {
+            fail(failure);
+        } else if (requestedStop == State.PAUSED) {
+            setState(State.PAUSED);
+        } else if (requestedStop == State.CONNECTING) {
+            System.out.println("Download of " + location + " changed on the server, starting again.");
+            segments.clear();
+            transferred.set(0);
+            start();
+        } else if (segments.stream().allMatch(Segment::isComplete)) {
+            setState(State.COMPLETED);
+        } else {
+            fail(new IOException("Download of " + location + " stopped unexpectedly."));
+        }
+    }
+
+    private void fail(Exception e) {
+        System.out.println("Unable to download " + location + ": " + e);
+        Platform.runLater(() -> error.set(e.getMessage()));
+        setState(State.FAILED);
+    }
+
+    /**
+     * @param fromStart true if the transfer starts from the beginning, so any existing content of the file is dropped,
+     *                  false to keep the content written so far.
+     */
+    private void openChannel(boolean fromStart) throws IOException {
+        if (channel == null) {
+            channel = fromStart
+                    ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                    : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Unable to close download file " + file + ": " + e);
+            }
+            channel = null;
+        }
+    }
+
+    private void deleteFile() {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.out.println("Unable to delete cancelled download " + file + ": " + e);
+        }
+    }
+
+    private void setState(State newState) {
+        Platform.runLater(() -> state.set(newState));
+    }
+
+    /**
+     * Update the progress properties, at most once per update interval unless forced.
+     */
+    private void reportProgress(boolean force) {
+        final long now = System.currentTimeMillis();
+        final long last = lastUpdateTime.get();
+        if (!force && now - last < UPDATE_INTERVAL_MILLIS) return;
+        if (!lastUpdateTime.compareAndSet(last, now)) return;
+
+        final long done = transferred.get();
+        Platform.runLater(() -> {
+            // smooth the rate a little so that it doesn't jump around too much.
+            long elapsed = Math.max(1, now - last);
+            double rate = Math.max(0, done - lastUpdateBytes) * 1000.0 / elapsed;
+            bytesPerSecond.set(force ? 0 : bytesPerSecond.get() * 0.5 + rate * 0.5);
+            lastUpdateBytes = done;
+            bytesDone.set(done);
+            if (force && length == UNKNOWN_LENGTH) {
+                totalBytes.set(done);
+            }
+        });
+    }
+
+    /** a range of the file transferred by a single worker. */
+    private static class Segment {
+        final long start;
+        volatile long position;
+        volatile long end;
+
+        /**
+         * @param start the first byte of the segment.
+         * @param end   the byte after the last byte of the segment, or UNKNOWN_LENGTH if the end is not known.
+         */
+        Segment(long start, long end) {
+            this.start = start;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean isComplete() {
+            return end != UNKNOWN_LENGTH && position >= end;
+        }
+    }
+}
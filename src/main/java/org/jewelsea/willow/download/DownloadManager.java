@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.download;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.io.File;
+
+/**
+ * Keeps track of the downloads made by the browser.
+ */
+public class DownloadManager {
+    private static DownloadManager instance;
+
+    /** the downloads, most recent first. */
+    private final ObservableList<Download> downloads = FXCollections.observableArrayList();
+
+    /**
+     * @return singleton instance
+     */
+    public static DownloadManager getInstance() {
+        if (instance == null) instance = new DownloadManager();
+        return instance;
+    }
+
+    /**
+     * Start downloading a location to a file in the background.
+     * Must be called on the JavaFX application thread.
+     *
+     * @param location the location to download.
+     * @param file     the file to save the download to.
+     * @return the new download.
+     */
+    public Download download(String location, File file) {
+        Download download = new Download(location, file);
+        downloads.add(0, download);
+        download.start();
+
+        return download;
+    }
+
+    /**
+     * Remove the finished downloads from the download list, any downloads still in progress are kept.
+     */
+    public void clearFinished() {
+        downloads.removeIf(download -> {
+            Download.State state = download.stateProperty().get();
+            return state == Download.State.COMPLETED || state == Download.State.CANCELLED;
+        });
+    }
+
+    /** @return the downloads, most recent first. */
+    public ObservableList<Download> getDownloads() {
+        return downloads;
+    }
+}
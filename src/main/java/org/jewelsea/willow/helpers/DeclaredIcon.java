@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.helpers;
+
+import java.util.Locale;
+
+/**
+ * An icon declared by a &lt;link rel="icon"&gt; element in a web page.
+ */
+public class DeclaredIcon {
+    /** size used for icons which don't declare a size (or declare a size of "any"). */
+    public static final int UNKNOWN_SIZE = 0;
+
+    private final String location;
+    private final String type;
+    private final int size;
+
+    /**
+     * @param location the absolute location of the icon.
+     * @param type     the declared mime type of the icon, e.g. image/png, may be empty.
+     * @param sizes    the declared sizes of the icon, e.g. "16x16 32x32", may be empty.
+     */
+    public DeclaredIcon(String location, String type, String sizes) {
+        this.location = location;
+        this.type = type;
+        this.size = parseSize(sizes);
+    }
+
+    /** @return the absolute location of the icon. */
+    public String getLocation() {
+        return location;
+    }
+
+    /** @return the declared mime type of the icon, may be empty. */
+    public String getType() {
+        return type;
+    }
+
+    /** @return the largest declared height of the icon, or UNKNOWN_SIZE if no size was declared. */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return false if the icon is in a format we know we can't decode (currently only svg).
+     */
+    public boolean isDecodable() {
+        String path = location.toLowerCase(Locale.ROOT);
+        int queryIdx = path.indexOf('?');
+        if (queryIdx >= 0) path = path.substring(0, queryIdx);
+
+        return !type.contains("svg") && !path.endsWith(".svg");
+    }
+
+    /**
+     * Parse the sizes attribute of an icon link, e.g. "16x16 32x32" => 32.
+     */
+    private static int parseSize(String sizes) {
+        int largest = UNKNOWN_SIZE;
+        for (String size : sizes.trim().split("\\s+")) {
+            int sep = size.indexOf('x');
+            if (sep <= 0) continue;
+            try {
+                largest = Math.max(largest, Integer.parseInt(size.substring(sep + 1)));
+            } catch (NumberFormatException e) {
+                // ignore sizes we don't understand - no action required.
+            }
+        }
+
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return "DeclaredIcon[" + location + ", type=" + type + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.helpers;
+
+import org.jewelsea.willow.util.StorageUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Second level (on-disk) cache of favicons, so that favicons survive a restart of the browser.
+ *
+ * Each icon location is stored as a pair of content addressed files:
+ *   &lt;hash&gt;.icon  the raw bytes of the icon as served.
+ *   &lt;hash&gt;.meta  the validators (ETag, Last-Modified) and fetch time for the icon.
+ *
+ * The total size of the stored icons is bounded, the least recently used icons are evicted first.
+ */
+public class FavIconDiskCache {
+    /** name of the storage area used for the cache. */
+    private static final String STORAGE_AREA = "favicons";
+    /** max number of bytes of icon data we will keep on disk. */
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final String ICON_SUFFIX = ".icon";
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * A favicon as stored in the cache.
+     */
+    public static class Entry {
+        public final byte[] data;
+        public final String etag;
+        public final String lastModified;
+        public final long fetchedAt;
+
+        public Entry(byte[] data, String etag, String lastModified, long fetchedAt) {
+            this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /** @return a copy of this entry marked as (re)validated at the given time. */
+        public Entry revalidated(long time) {
+            return new Entry(data, etag, lastModified, time);
+        }
+    }
+
+    /** directory holding the cache files or null if the disk cache is unavailable. */
+    private final Path dir;
+
+    public FavIconDiskCache() {
+        Path cacheDir = null;
+        try {
+            cacheDir = StorageUtil.getStorageDir(STORAGE_AREA);
+        } catch (IOException e) {
+            System.out.println("Unable to create favicon cache, favicons will not be stored on disk: " + e);
+        }
+        dir = cacheDir;
+    }
+
+    /**
+     * @param iconLoc the location the favicon was fetched from.
+     * @return the stored favicon for the location or null if there is no such favicon.
+     */
+    public Entry get(String iconLoc) {
+        if (dir == null) return null;
+
+        final String key = StorageUtil.hashKey(iconLoc);
+        final Path iconFile = dir.resolve(key + ICON_SUFFIX);
+        final Path metaFile = dir.resolve(key + META_SUFFIX);
+        if (!Files.exists(iconFile) || !Files.exists(metaFile)) return null;
+
+        try (InputStream metaStream = Files.newInputStream(metaFile)) {
+            Properties meta = new Properties();
+            meta.load(metaStream);
+            byte[] data = Files.readAllBytes(iconFile);
+
+            // record the access so that eviction can work out which icons are least recently used.
+            Files.setLastModifiedTime(iconFile, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return new Entry(
+                    data,
+                    meta.getProperty("etag"),
+                    meta.getProperty("last-modified"),
+                    Long.parseLong(meta.getProperty("fetched", "0"))
+            );
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Unable to read cached favicon for " + iconLoc + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a favicon for an icon location, replacing any existing stored favicon for the location.
+     *
+     * @param iconLoc the location the favicon was fetched from.
+     * @param entry   the favicon to store.
+     */
+    public void put(String iconLoc, Entry entry) {
+        if (dir == null) return;
+
+        final String key = StorageUtil.hashKey(iconLoc);
+        Properties meta = new Properties();
+        meta.setProperty("location", iconLoc);
+        meta.setProperty("fetched", Long.toString(entry.fetchedAt));
+        if (entry.etag != null) meta.setProperty("etag", entry.etag);
+        if (entry.lastModified != null) meta.setProperty("last-modified", entry.lastModified);
+
+        try {
+            ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+            meta.store(metaBytes, null);
+
+            // write the icon before the metadata, an icon without metadata is never read.
+            StorageUtil.writeAtomically(dir.resolve(key + ICON_SUFFIX), entry.data);
+            StorageUtil.writeAtomically(dir.resolve(key + META_SUFFIX), metaBytes.toByteArray());
+        } catch (IOException e) {
+            System.out.println("Unable to store favicon for " + iconLoc + ": " + e);
+            return;
+        }
+
+        evict();
+    }
+
+    /**
+     * Removes the least recently used icons until the cache fits within its size budget.
+     */
+    private synchronized void evict() {
+        List<Path> icons = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + ICON_SUFFIX)) {
+            for (Path icon : stream) {
+                icons.add(icon);
+                totalBytes += Files.size(icon);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to scan favicon cache: " + e);
+            return;
+        }
+
+        if (totalBytes <= MAX_CACHE_BYTES) return;
+
+        icons.sort(Comparator.comparing(FavIconDiskCache::lastAccessed));
+        for (Path icon : icons) {
+            if (totalBytes <= MAX_CACHE_BYTES) break;
+            try {
+                totalBytes -= Files.size(icon);
+                String fileName = icon.getFileName().toString();
+                String key = fileName.substring(0, fileName.length() - ICON_SUFFIX.length());
+                Files.deleteIfExists(dir.resolve(key + META_SUFFIX));
+                Files.deleteIfExists(icon);
+            } catch (IOException e) {
+                System.out.println("Unable to evict favicon " + icon + ": " + e);
+            }
+        }
+    }
+
+    private static FileTime lastAccessed(Path icon) {
+        try {
+            return Files.getLastModifiedTime(icon);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
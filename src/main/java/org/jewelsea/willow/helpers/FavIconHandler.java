@@ -21,65 +21,79 @@
 
 package org.jewelsea.willow.helpers;
 
-import javafx.concurrent.Task;
+import javafx.application.Platform;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import net.sf.image4j.codec.ico.ICODecoder;
+import org.jewelsea.willow.util.FetchExecutor;
 import org.jewelsea.willow.util.LruCache;
 import org.jewelsea.willow.util.ResourceUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /* Helper class for handling favicons for sites */
 public class FavIconHandler {
     /**
-     * prefix used for the favicon fetching thread.
+     * max number of favicons we will keep in memory.
      */
-    public static final String FAVICON_FETCH_THREAD_PREFIX = "favicon-fetcher-";
+    private static final int MAX_CACHED_FAVICONS = 200;
     /**
-     * max number of threads we will use to simultaneously fetch favicons.
+     * size at which favicons are displayed.
      */
-    private static final int N_FETCH_THREADS = 4;
+    public static final int FAVICON_SIZE = 16;
+    /**
+     * how long a favicon from the disk cache is used before we check with the server that it is still current.
+     */
+    private static final long FRESHNESS_MILLIS = TimeUnit.DAYS.toMillis(7);
+    /**
+     * how long we wait before trying to fetch an icon again after failing to fetch it.
+     */
+    private static final long MISSING_ICON_RETRY_MILLIS = TimeUnit.HOURS.toMillis(1);
     private static FavIconHandler instance;
     /**
-     * a threadpool for fetching favicons.
+     * executor for fetching favicons.
      */
-    private final ExecutorService threadpool;
+    private final FetchExecutor fetchExecutor = FetchExecutor.getInstance();
     /**
-     * least recently used cache of favicons
+     * the favicon last used for each server root.
      */
-    private Map<String, ImageView> faviconCache =
-            new ConcurrentHashMap<String, ImageView>(
-                    new LruCache<>(200)
-            );
-
+    private final LruCache<String, CompletableFuture<Image>> faviconCache = new LruCache<>(MAX_CACHED_FAVICONS);
+    /**
+     * least recently used cache of favicons, keyed by icon location.
+     */
+    private final LruCache<String, CompletableFuture<Image>> iconCache = new LruCache<>(MAX_CACHED_FAVICONS);
     /**
-     * constructor.
+     * icon locations which could not be fetched, mapped to the time until which we won't try to fetch them again.
      */
-    public FavIconHandler() {
-        // initialize the favicon threadpool to the specified number of threads.
-        // the name of the threads are customized so they are easy to recognize.
-        // the status of the threads are set to daemon, so that the application can
-        // exit even if a favicon fetch is in progress or stalled.
-        threadpool = Executors.newFixedThreadPool(N_FETCH_THREADS, new ThreadFactory() {
-            ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    private final LruCache<String, Long> missingIcons = new LruCache<>(MAX_CACHED_FAVICONS);
+    /**
+     * favicon fetches currently in progress, keyed by icon location.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Image>> inFlightFetches = new ConcurrentHashMap<>();
 
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread newThread = defaultFactory.newThread(r);
-                newThread.setName(FAVICON_FETCH_THREAD_PREFIX + newThread.getName());
-                newThread.setDaemon(true);
-                return newThread;
-            }
-        });
-    }
+    /**
+     * on-disk cache of favicons, so favicons survive a restart.
+     */
+    private final FavIconDiskCache diskCache = new FavIconDiskCache();
 
     /**
      * @return singleton instance
@@ -90,55 +104,338 @@ public class FavIconHandler {
     }
 
     /**
-     * Fetch a favicon for a given location.
+     * Lookup the favicon last used for the server of a given location, without fetching anything.
+     *
+     * @param browserLoc the location of a browser for which a favicon is required.
+     * @return a future favicon for the browser location, which completes with null if no favicon is known.
+     */
+    public CompletableFuture<Image> getCachedFavIcon(final String browserLoc) {
+        final String serverRoot = findRootLoc(browserLoc);
+        final CompletableFuture<Image> favicon = (serverRoot != null) ? faviconCache.get(serverRoot) : null;
+
+        return (favicon != null) ? favicon : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Fetch a favicon for a given location, which did not declare any icons.
      *
      * @param browserLoc the location of a browser for which a favicon is to be fetched.
-     * @return the favicon for the browser location or null if no such favicon could be determined.
+     * @return a future favicon for the browser location, which completes with null if no favicon could be determined.
+     * @see #fetchFavIcon(String, List, Object)
      */
-    public ImageView fetchFavIcon(final String browserLoc) {
-        // fetch the favicon from cache if it is there.
+    public CompletableFuture<Image> fetchFavIcon(final String browserLoc) {
+        return fetchFavIcon(browserLoc, Collections.emptyList(), null);
+    }
+
+    /**
+     * Fetch a favicon for a given location.
+     *
+     * The best fitting icon declared by the document at the location is used,
+     * if the document didn't declare a usable icon, the server's /favicon.ico is used.
+     *
+     * All locations using the same icon share a single fetch and a single decoded image.
+     * Icons which could not be fetched are not asked for again for a while.
+     *
+     * If the owner cancels its fetches before the favicon has been fetched, the favicon completes with null
+     * (for every location sharing the favicon), and the icon will be fetched again the next time it is requested.
+     *
+     * @param browserLoc    the location of a browser for which a favicon is to be fetched.
+     * @param declaredIcons the icons declared by the document at the browser location.
+     * @param owner         the owner of any fetch started for the favicon, see {@link FetchExecutor#cancelAll(Object)}.
+     * @return a future favicon for the browser location, which completes with null if no favicon could be determined.
+     */
+    public CompletableFuture<Image> fetchFavIcon(
+            final String browserLoc,
+            final List<DeclaredIcon> declaredIcons,
+            final Object owner
+    ) {
+        // if the serverRoot of the location cannot be determined, there is no favicon.
         final String serverRoot = findRootLoc(browserLoc);
-        ImageView cachedFavicon = faviconCache.get(serverRoot);
-        if (cachedFavicon != null) return cachedFavicon;
+        if (serverRoot == null) return CompletableFuture.completedFuture(null);
 
-        // ok, it wasn't in the cache, create a placeholder, to be used if the site doesn't have a favicon.
-        final ImageView favicon = new ImageView();
+        // work out where the icon should come from.
+        final DeclaredIcon declaredIcon = chooseIcon(declaredIcons);
+        final String iconLoc = (declaredIcon != null) ? declaredIcon.getLocation() : serverRoot + "/favicon.ico";
 
-        // if the serverRoot of the location cannot be determined, just return the placeholder.
-        if (serverRoot == null) return favicon;
+        // don't hammer servers for icons which we recently failed to get.
+        final Long missingUntil = missingIcons.get(iconLoc);
+        if (missingUntil != null) {
+            if (missingUntil > System.currentTimeMillis()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            missingIcons.remove(iconLoc);
+        }
 
-        // store the new favicon placeholder in the cache.
+        // fetch the favicon from cache if it is there, otherwise lazily fetch the real favicon.
+        final CompletableFuture<Image> newFavicon = new CompletableFuture<>();
+        final CompletableFuture<Image> favicon = iconCache.computeIfAbsent(iconLoc, loc -> newFavicon);
+        if (favicon == newFavicon) {
+            fetchExecutor.submit(owner, FetchExecutor.hostOf(iconLoc), () -> {
+                loadFavIcon(iconLoc, newFavicon);
+                return null;
+            }).whenComplete((result, error) -> {
+                // the fetch was cancelled before it could complete the favicon.
+                if (!newFavicon.isDone()) {
+                    iconCache.remove(iconLoc, newFavicon);
+                    newFavicon.complete(null);
+                }
+            });
+        }
+
+        // remember the icon as the icon for the server, so other locations on the server can display it immediately.
         faviconCache.put(serverRoot, favicon);
 
-        // lazily fetch the real favicon.
-        final Task<Image> task = new Task<Image>() {
-            @Override
-            protected Image call() throws Exception {
-                // fetch the favicon from the server if we can.
-                URL url = new URL(serverRoot + "/favicon.ico");
-
-                // decode the favicon into an awt image.
-                List<BufferedImage> imgs = ICODecoder.read(url.openStream());
-
-                // if the decoding was successful convert to a JavaFX image and return it.
-                if (imgs.size() > 0) {
-                    return ResourceUtil.bufferedImageToFXImage(imgs.get(0), 0, 16, true, true);
-                } else {
-                    return null;
+        return favicon;
+    }
+
+    /**
+     * Create a view of a favicon, suitable for use as a tab graphic.
+     * The view is empty until the favicon has been fetched, it then displays the shared favicon image.
+     *
+     * @param favicon a future favicon as returned by {@link #fetchFavIcon(String, List, Object)}.
+     * @return a new view of the favicon.
+     */
+    public static ImageView createFavIconView(final CompletableFuture<Image> favicon) {
+        final ImageView view = new ImageView();
+        view.setFitHeight(FAVICON_SIZE);
+        view.setPreserveRatio(true);
+
+        Image image = favicon.getNow(null);
+        if (image != null) {
+            view.setImage(image);
+        } else if (!favicon.isDone()) {
+            favicon.thenAcceptAsync(view::setImage, Platform::runLater);
+        }
+
+        return view;
+    }
+
+    /**
+     * Find the icons declared by &lt;link rel="icon"&gt; elements in a document.
+     * Must be called on the JavaFX application thread.
+     *
+     * @param document    the document to search, may be null.
+     * @param documentLoc the location of the document, used to resolve relative icon locations.
+     * @return the declared icons.
+     */
+    public static List<DeclaredIcon> findDeclaredIcons(final Document document, final String documentLoc) {
+        final List<DeclaredIcon> declaredIcons = new ArrayList<>();
+        if (document == null || documentLoc == null) return declaredIcons;
+
+        final NodeList links = document.getElementsByTagName("link");
+        for (int i = 0; i < links.getLength(); i++) {
+            final Element link = (Element) links.item(i);
+            final String rel = link.getAttribute("rel").toLowerCase(Locale.ROOT);
+            final String href = link.getAttribute("href").trim();
+            if (href.isEmpty() || !Arrays.asList(rel.split("\\s+")).contains("icon")) continue;
+
+            try {
+                declaredIcons.add(new DeclaredIcon(
+                        new URL(new URL(documentLoc), href).toExternalForm(),
+                        link.getAttribute("type").toLowerCase(Locale.ROOT),
+                        link.getAttribute("sizes").toLowerCase(Locale.ROOT)
+                ));
+            } catch (MalformedURLException e) {
+                // ignore icons with a bad location - no action required.
+            }
+        }
+
+        return declaredIcons;
+    }
+
+    /**
+     * Choose the declared icon which best fits the favicon display size.
+     *
+     * An icon declared at (or just above) the display size is best, then an icon of unknown size,
+     * then the largest of any icons which are smaller than the display size.
+     * Formats which cannot be decoded (e.g. svg) are not chosen.
+     *
+     * @param declaredIcons the icons to choose from.
+     * @return the best fitting icon or null if none of the icons are usable.
+     */
+    private static DeclaredIcon chooseIcon(final List<DeclaredIcon> declaredIcons) {
+        DeclaredIcon best = null;
+        for (DeclaredIcon icon : declaredIcons) {
+            // todo svg favicons are skipped as JavaFX can't render svg images, think about rasterizing them.
+            if (!icon.isDecodable()) continue;
+            if (best == null || fitRank(icon.getSize()) < fitRank(best.getSize())) {
+                best = icon;
+            }
+        }
+
+        return best;
+    }
+
+    /** @return a rank for how well an icon of the given size fits the display size, lower is better. */
+    private static int fitRank(final int size) {
+        if (size >= FAVICON_SIZE) return size - FAVICON_SIZE;
+        if (size == DeclaredIcon.UNKNOWN_SIZE) return 10_000;
+        return 20_000 - size;
+    }
+
+    /**
+     * Load a favicon, completing the provided future with the result.
+     * Runs on a fetch executor thread.
+     *
+     * @param iconLoc the location of the icon to load.
+     * @param favicon the future to complete with the favicon (or null if there is no favicon).
+     */
+    private void loadFavIcon(final String iconLoc, final CompletableFuture<Image> favicon) {
+        Image image = null;
+        try {
+            // try the on-disk cache first, so that we don't refetch favicons we already know about.
+            FavIconDiskCache.Entry cached = diskCache.get(iconLoc);
+            Image cachedImage = null;
+            if (cached != null) {
+                cachedImage = decode(cached.data);
+                favicon.complete(cachedImage);
+                if (System.currentTimeMillis() - cached.fetchedAt < FRESHNESS_MILLIS) {
+                    return;
                 }
+
+                // the cached icon is stale, it is used for now while we check with the server whether it is
+                // still current, if it has changed, later lookups will get the new icon.
             }
-        };
 
-        // replace the placeholder in a favicon whenever the lazy fetch completes.
-        task.valueProperty().addListener((observableValue, oldImage, newImage) -> {
-            if (newImage != null) {
-                favicon.setImage(newImage);
+            image = fetch(iconLoc, cached, cachedImage);
+            if (favicon.isDone()) {
+                if (image != null && image != cachedImage) {
+                    iconCache.put(iconLoc, CompletableFuture.completedFuture(image));
+                }
+            } else {
+                favicon.complete(image);
+            }
+        } catch (Exception e) {
+            // just fail to fetch a bad favicon silently - the browser will show no favicon.
+            favicon.complete(null);
+        } finally {
+            if (image == null && favicon.getNow(null) == null) {
+                iconCache.remove(iconLoc, favicon);
+                // a cancelled fetch says nothing about whether the icon exists.
+                if (!Thread.currentThread().isInterrupted()) {
+                    missingIcons.put(iconLoc, System.currentTimeMillis() + MISSING_ICON_RETRY_MILLIS);
+                }
             }
-        });
+        }
+    }
+
+    /**
+     * Fetch a favicon, revalidating a previously cached copy of the favicon if we have one.
+     *
+     * Only one request is made for an icon location at a time, concurrent requests share its result.
+     *
+     * @param iconLoc     the location of the icon to fetch.
+     * @param cached      a previously cached copy of the favicon or null if there is no such copy.
+     * @param cachedImage the decoded image of the cached copy of the favicon or null if there is no such copy.
+     * @return the up to date favicon (the cachedImage if it is unchanged) or null if there is no such favicon.
+     * @throws IOException if there was an error communicating with the server.
+     */
+    private Image fetch(String iconLoc, FavIconDiskCache.Entry cached, Image cachedImage) throws IOException {
+        // if something else is already fetching the icon, share its result rather than requesting it again.
+        final CompletableFuture<Image> iconFetch = new CompletableFuture<>();
+        final CompletableFuture<Image> existingFetch = inFlightFetches.putIfAbsent(iconLoc, iconFetch);
+        if (existingFetch != null) {
+            return existingFetch.join();
+        }
 
-        threadpool.execute(task);
+        Image image = null;
+        try {
+            image = request(iconLoc, cached, cachedImage);
+            return image;
+        } finally {
+            iconFetch.complete(image);
+            inFlightFetches.remove(iconLoc, iconFetch);
+        }
+    }
 
-        return favicon;
+    /**
+     * Request a favicon from its server, conditional on the validators of a previously cached copy if we have one.
+     *
+     * @param iconLoc     the location of the icon to fetch.
+     * @param cached      a previously cached copy of the favicon or null if there is no such copy.
+     * @param cachedImage the decoded image of the cached copy of the favicon or null if there is no such copy.
+     * @return the up to date favicon (the cachedImage if it is unchanged) or null if there is no such favicon.
+     * @throws IOException if there was an error communicating with the server.
+     */
+    private Image request(String iconLoc, FavIconDiskCache.Entry cached, Image cachedImage) throws IOException {
+        URLConnection connection = fetchExecutor.openConnection(new URL(iconLoc));
+        if (!(connection instanceof HttpURLConnection)) {
+            try (InputStream is = connection.getInputStream()) {
+                return decode(is.readAllBytes());
+            }
+        }
+
+        // make the request conditional on the validators of any cached copy of the favicon.
+        HttpURLConnection http = (HttpURLConnection) connection;
+        if (cached != null) {
+            if (cached.etag != null) http.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModified != null) http.setRequestProperty("If-Modified-Since", cached.lastModified);
+        }
+
+        try {
+            // the response code is only available once any redirects have been followed.
+            int responseCode = http.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                diskCache.put(iconLoc, cached.revalidated(System.currentTimeMillis()));
+                return cachedImage;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            try (InputStream is = http.getInputStream()) {
+                FavIconDiskCache.Entry fetched = new FavIconDiskCache.Entry(
+                        is.readAllBytes(),
+                        http.getHeaderField("ETag"),
+                        http.getHeaderField("Last-Modified"),
+                        System.currentTimeMillis()
+                );
+                diskCache.put(iconLoc, fetched);
+                return decode(fetched.data);
+            }
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * Decode favicon data into a JavaFX image.
+     *
+     * Windows icon files are decoded with the ico decoder, anything else (png, gif, jpeg, bmp) is decoded by ImageIO.
+     *
+     * Icon files often contain the same icon at several sizes, the smallest image which is at least as large as
+     * the displayed favicon size is used, so that as little scaling as possible is performed.
+     *
+     * @param data the raw bytes of a favicon.
+     * @return the decoded favicon or null if the data contained no images.
+     * @throws IOException if the data could not be decoded.
+     */
+    private Image decode(byte[] data) throws IOException {
+        // decode the favicon into awt images.
+        List<BufferedImage> imgs;
+        if (isIco(data)) {
+            imgs = ICODecoder.read(new ByteArrayInputStream(data));
+        } else {
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+            imgs = (img != null) ? Collections.singletonList(img) : Collections.emptyList();
+        }
+
+        // if the decoding was successful convert the best fitting image to a JavaFX image and return it.
+        BufferedImage best = null;
+        for (BufferedImage img : imgs) {
+            if (best == null
+                    || (best.getHeight() < FAVICON_SIZE && img.getHeight() > best.getHeight())
+                    || (img.getHeight() >= FAVICON_SIZE && img.getHeight() < best.getHeight())) {
+                best = img;
+            }
+        }
+
+        return best != null ? ResourceUtil.bufferedImageToFXImage(best, 0, FAVICON_SIZE) : null;
+    }
+
+    /** @return true if the data starts with the header of a windows icon (or cursor) file. */
+    private static boolean isIco(byte[] data) {
+        return data.length >= 4 && data[0] == 0 && data[1] == 0 && (data[2] == 1 || data[2] == 2) && data[3] == 0;
     }
 
     /**
@@ -159,5 +456,3 @@ public class FavIconHandler {
         return null;
     }
 }
-
-// todo think about other favicon types such as pngs, and jpgs and how they may be processed as well as favicons which could be specified inside html.
\ No newline at end of file
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.helpers;
+
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
+import org.jewelsea.willow.bookmark.BookmarkStore;
+import org.jewelsea.willow.bookmark.NetscapeBookmarkFile;
+import org.jewelsea.willow.navigation.HistoryJsonFile;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.jewelsea.willow.util.ResourceUtil.getString;
+
+/**
+ * Imports and exports bookmarks and history files chosen by the user, in the background, and reports how it went.
+ */
+public class ImportExportHandler {
+    /** name of the thread which reads and writes the files. */
+    public static final String THREAD_NAME = "willow-import-export";
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void importBookmarks(Window owner) {
+        final File file = chooseFile(owner, false, "import-export.bookmark-files", "bookmarks.html", "*.html", "*.htm");
+        if (file == null) return;
+
+        final BookmarkStore store = BookmarkStore.getInstance();
+        transfer(owner, getString("import-export.bookmarks-imported"),
+                () -> NetscapeBookmarkFile.importFrom(file.toPath(), store.getRoot())
+        );
+    }
+
+    public static void exportBookmarks(Window owner) {
+        final File file = chooseFile(owner, true, "import-export.bookmark-files", "bookmarks.html", "*.html", "*.htm");
+        if (file == null) return;
+
+        transfer(owner, getString("import-export.bookmarks-exported"),
+                () -> NetscapeBookmarkFile.exportTo(file.toPath())
+        );
+    }
+
+    public static void importHistory(Window owner) {
+        final File file = chooseFile(owner, false, "import-export.history-files", "history.json", "*.json");
+        if (file == null) return;
+
+        transfer(owner, getString("import-export.history-imported"),
+                () -> HistoryJsonFile.importFrom(file.toPath())
+        );
+    }
+
+    public static void exportHistory(Window owner) {
+        final File file = chooseFile(owner, true, "import-export.history-files", "history.json", "*.json");
+        if (file == null) return;
+
+        transfer(owner, getString("import-export.history-exported"),
+                () -> HistoryJsonFile.exportTo(file.toPath())
+        );
+    }
+
+    private static File chooseFile(Window owner, boolean save, String filterKey, String initialName, String... extensions) {
+        final FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(getString(filterKey), extensions));
+        if (save) {
+            chooser.setInitialFileName(initialName);
+            return chooser.showSaveDialog(owner);
+        } else {
+            return chooser.showOpenDialog(owner);
+        }
+    }
+
+    /**
+     * Read or write a file in the background, then tell the user how many items were transferred and how quickly.
+     *
+     * @param owner    the window to report to.
+     * @param what     what was transferred, e.g. "Bookmarks imported".
+     * @param transfer reads or writes the file, returning the number of items transferred.
+     */
+    private static void transfer(Window owner, String what, Callable<Integer> transfer) {
+        worker.execute(() -> {
+            final long start = System.nanoTime();
+            String report;
+            Alert.AlertType type = Alert.AlertType.INFORMATION;
+            try {
+                final int count = transfer.call();
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                report = String.format(
+                        getString("import-export.report"), what, count, seconds, count / Math.max(seconds, 0.001)
+                );
+            } catch (Exception e) {
+                report = getString("import-export.failed") + " " + e.getMessage();
+                type = Alert.AlertType.ERROR;
+            }
+            System.out.println(report);
+
+            final String message = report;
+            final Alert.AlertType alertType = type;
+            Platform.runLater(() -> {
+                Alert alert = new Alert(alertType, message);
+                alert.setHeaderText(null);
+                alert.initOwner(owner);
+                alert.show();
+            });
+        });
+    }
+}
@@ -21,69 +21,277 @@
 
 package org.jewelsea.willow.helpers;
 
+import javafx.application.Platform;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
+import org.jewelsea.willow.browser.BrowserWindow;
+import org.jewelsea.willow.download.DownloadManager;
+import org.jewelsea.willow.util.FetchExecutor;
+import org.jewelsea.willow.util.LruCache;
 
-import javax.swing.*;
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 import static org.jewelsea.willow.util.ResourceUtil.getString;
 
+/**
+ * Routes locations the browser navigates to, to whatever can handle them: the web view, the pdf viewer or the
+ * download manager.
+ *
+ * Locations are classified by the Content-Type and Content-Disposition the server sends for them, using a HEAD request
+ * so that the content itself is not transferred twice. To avoid an extra request for every page, a location is only
+ * classified when it looks like it might not be a web page (it has a file extension which isn't a page extension) or
+ * when the web view fails to load it. Classifications are cached per location.
+ */
 public class LocationHandler {
-    public static void handleLocation(WebView view, String location) {
-        // todo try the JavaFX based jpedalfx viewer instead...
-        if (location.endsWith(".pdf")) {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    final PDFViewer pdfViewer = new PDFViewer(false);
-                    pdfViewer.openFile(new URL(location));
-                } catch (Exception ex) {
-                    // just fail to open a bad pdf url silently - no action required.
-                }
-            });
+    /** max number of location classifications we remember. */
+    private static final int MAX_CACHED_ROUTES = 256;
+
+    /** file extensions of locations which we expect to be web pages, so don't bother classifying. */
+    private static final String[] PAGE_EXTENSIONS = {
+            "htm", "html", "xhtml", "shtml", "php", "asp", "aspx", "jsp", "cgi", "pl", "txt", "xml"
+    };
+
+    /** where a location is handled. */
+    public enum Route { PAGE, PDF, DOWNLOAD }
+
+    /** how a location should be handled and the file name the server suggested for it (may be null). */
+    private static class Classification {
+        final Route route;
+        final String fileName;
+
+        Classification(Route route, String fileName) {
+            this.route = route;
+            this.fileName = fileName;
+        }
+    }
+
+    private static final LruCache<String, Classification> routeCache = new LruCache<>(MAX_CACHED_ROUTES);
+
+    /**
+     * Handle a location the browser has navigated to.
+     *
+     * @param browser  the browser which navigated to the location, it owns any background classification.
+     * @param location the location navigated to.
+     */
+    public static void handleLocation(BrowserWindow browser, String location) {
+        if (location == null || !isFetchable(location)) return;
+
+        Classification cached = routeCache.get(location);
+        if (cached != null) {
+            dispatch(browser, location, cached);
+        } else if (!looksLikePage(location)) {
+            classifyAndDispatch(browser, location);
         }
+    }
 
-        // todo I wonder how to find out from WebView which documents it could not process so that I could trigger a save as for them?
-        String downloadableExtension = null;
-        String[] downloadableExtensions = {".doc", ".xls", ".zip", ".tgz", ".jar"};
-        for (String ext : downloadableExtensions) {
-            if (location.endsWith(ext)) {
-                downloadableExtension = ext;
-                break;
+    /**
+     * Handle a location the web view was unable to load, it may be content which the web view can't display.
+     *
+     * @param browser  the browser which failed to load the location, it owns any background classification.
+     * @param location the location which failed to load.
+     */
+    public static void handleLoadFailure(BrowserWindow browser, String location) {
+        if (location == null || !isFetchable(location)) return;
+
+        // locations which don't look like pages were already routed when they were navigated to.
+        if (looksLikePage(location) && routeCache.get(location) == null) {
+            classifyAndDispatch(browser, location);
+        }
+    }
+
+    private static void classifyAndDispatch(BrowserWindow browser, String location) {
+        classify(location, browser).thenAcceptAsync(classification -> {
+            // only act if the browser is still at the location, the user may have moved on while we were asking.
+            if (location.equals(browser.getView().getEngine().getLocation())) {
+                dispatch(browser, location, classification);
+            }
+        }, Platform::runLater).exceptionally(e -> {
+            // the classification was cancelled or couldn't be made, leave the location to the web view - no action required.
+            return null;
+        });
+    }
+
+    /**
+     * Work out how a location should be handled, in the background.
+     */
+    private static CompletableFuture<Classification> classify(String location, Object owner) {
+        return FetchExecutor.getInstance().submit(owner, FetchExecutor.hostOf(location), () -> {
+            try {
+                Classification classification = probe(location);
+                routeCache.put(location, classification);
+                return classification;
+            } catch (IOException e) {
+                // don't remember the guess, the server may answer next time.
+                System.out.println("Unable to classify " + location + ": " + e);
+                return new Classification(guessRoute(location), null);
+            }
+        });
+    }
+
+    /**
+     * Ask the server what kind of content is at a location, without transferring the content.
+     */
+    private static Classification probe(String location) throws IOException {
+        // a HEAD response has no body, so the connection is kept alive for the fetch which follows.
+        URLConnection connection = FetchExecutor.getInstance().openConnection(new URL(location));
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setRequestMethod("HEAD");
+            if (http.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // some servers don't do HEAD requests, fall back to looking at the location.
+                return new Classification(guessRoute(location), null);
             }
         }
 
-        if (downloadableExtension != null) {
-            // create a file save option for performing a download.
-            FileChooser chooser = new FileChooser();
-            chooser.setTitle("Save " + location);
+        final String disposition = connection.getHeaderField("Content-Disposition");
+        final boolean attachment = disposition != null
+                && disposition.trim().toLowerCase(Locale.ROOT).startsWith("attachment");
+
+        return new Classification(
+                routeForContentType(connection.getContentType(), attachment, location),
+                parseFileName(disposition)
+        );
+    }
+
+    private static Route routeForContentType(String contentType, boolean attachment, String location) {
+        if (contentType == null) return guessRoute(location);
+
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int paramIdx = type.indexOf(';');
+        if (paramIdx >= 0) type = type.substring(0, paramIdx);
+        type = type.trim();
+
+        if ("application/pdf".equals(type)) return Route.PDF;
+        if (attachment) return Route.DOWNLOAD;
+        if (type.startsWith("text/")
+                || type.startsWith("image/")
+                || type.contains("html")
+                || type.contains("xml")
+                || type.contains("json")
+                || type.contains("javascript")) {
+            return Route.PAGE;
+        }
+
+        return Route.DOWNLOAD;
+    }
+
+    /**
+     * Guess how to handle a location from its extension, for when we can't ask the server.
+     */
+    private static Route guessRoute(String location) {
+        String extension = extensionOf(location);
+        if ("pdf".equals(extension)) return Route.PDF;
+        return looksLikePage(location) ? Route.PAGE : Route.DOWNLOAD;
+    }
+
+    private static void dispatch(BrowserWindow browser, String location, Classification classification) {
+        switch (classification.route) {
+            case PDF:
+                // stop the web view trying to render the document itself and show it in the browser's pdf view.
+                browser.getView().getEngine().getLoadWorker().cancel();
+                browser.showPdf(location);
+                break;
+
+            case DOWNLOAD:
+                browser.getView().getEngine().getLoadWorker().cancel();
+                download(browser.getView(), location, classification.fileName);
+                break;
+
+            case PAGE:
+            default:
+                // the web view handles it - no action required.
+                break;
+        }
+    }
+
+    private static void download(WebView view, String location, String suggestedFileName) {
+        String fileName = suggestedFileName != null ? suggestedFileName : fileNameOf(location);
+
+        // create a file save option for performing a download.
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Save " + location);
+        if (!fileName.isEmpty()) {
+            chooser.setInitialFileName(fileName);
+        }
+        int extensionIdx = fileName.lastIndexOf('.');
+        if (extensionIdx > 0) {
             chooser.getExtensionFilters().add(
                     new FileChooser.ExtensionFilter(
                             getString("download-filechooser.title"),
-                            downloadableExtension
+                            "*" + fileName.substring(extensionIdx)
                     )
             );
+        }
 
-            int filenameIdx = location.lastIndexOf("/") + 1;
-            if (filenameIdx != 0) {
-                File saveFile = chooser.showSaveDialog(view.getScene().getWindow());
-
-                if (saveFile != null) {
-                    try (BufferedInputStream is = new BufferedInputStream(new URL(location).openStream());
-                         BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(saveFile));) {
-                        int b = is.read();
-                        while (b != -1) {
-                            os.write(b);
-                            b = is.read();
-                        }
-                    } catch (IOException e) {
-                        System.out.println("Unable to save file: " + e);
-                    }
-                }
+        File saveFile = chooser.showSaveDialog(view.getScene().getWindow());
+        if (saveFile != null) {
+            // perform the download in the background, progress is shown in the sidebar download list.
+            DownloadManager.getInstance().download(location, saveFile);
+        }
+    }
 
-                // todo shell the download out to a task, provide feedback on the save function and provide a download list and download list lookup.
+    /**
+     * @return the file name from a Content-Disposition header, e.g. attachment; filename="report.zip" => report.zip
+     */
+    private static String parseFileName(String disposition) {
+        if (disposition == null) return null;
+
+        for (String param : disposition.split(";")) {
+            String[] nameValue = param.trim().split("=", 2);
+            if (nameValue.length == 2 && "filename".equalsIgnoreCase(nameValue[0].trim())) {
+                String name = nameValue[1].trim();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                // never let the server pick a directory.
+                name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+                return name.isEmpty() ? null : name;
             }
         }
+
+        return null;
+    }
+
+    private static boolean isFetchable(String location) {
+        return location.startsWith("http:") || location.startsWith("https:");
+    }
+
+    /**
+     * @return true if the location has no file extension or has an extension used for web pages.
+     */
+    private static boolean looksLikePage(String location) {
+        String extension = extensionOf(location);
+        if (extension.isEmpty()) return true;
+        for (String pageExtension : PAGE_EXTENSIONS) {
+            if (pageExtension.equals(extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the lower case file extension of the path of a location, e.g. http://x.com/a.PDF?q=1 => pdf
+     */
+    private static String extensionOf(String location) {
+        String name = fileNameOf(location);
+        int extensionIdx = name.lastIndexOf('.');
+        return extensionIdx > 0 ? name.substring(extensionIdx + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * @return the last segment of the path of a location, e.g. http://x.com/dir/a.pdf?q=1 => a.pdf
+     */
+    private static String fileNameOf(String location) {
+        try {
+            String path = new URL(location).getPath();
+            return path.substring(path.lastIndexOf('/') + 1);
+        } catch (IOException e) {
+            return "";
+        }
     }
 }
@@ -21,38 +21,41 @@
 
 package org.jewelsea.willow.navigation;
 
-import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
 import org.jewelsea.willow.Willow;
+import org.jewelsea.willow.bookmark.BookmarkStore;
 
-/** Creates a named bookmarked url to navigate to. */
+/** Creates named bookmarked urls to navigate to. */
 public class BookmarkHandler {
 
     /**
-     * @param chrome        the browser chrome the bookmark is to control.
-     * @param bookmarksMenu the menu into which the bookmark is to be installed.
-     * @param bookmarkName  the name of the bookmark.
-     * @param bookmarkUrl   the url of the bookmark.
+     * @param chrome       the browser chrome the bookmark is to control.
+     * @param bookmarkName the name of the bookmark.
+     * @param bookmarkUrl  the url of the bookmark.
      *
-     * @return true if the bookmark was not already installed in the chrome, otherwise false.
+     * @return a menu item which navigates the chrome to the bookmarked url.
      */
-    public static boolean installBookmark(
+    public static MenuItem createMenuItem(
             final Willow chrome,
-            final ContextMenu bookmarksMenu,
             final String bookmarkName,
             final String bookmarkUrl
     ) {
-        for (MenuItem item : bookmarksMenu.getItems()) {
-            if (item.getText().equals(bookmarkName)) {
-                return false;
-            }
-        }
-
         final MenuItem menuItem = new MenuItem(bookmarkName);
         menuItem.setOnAction(actionEvent -> chrome.getBrowser().navTo(bookmarkUrl));
-        bookmarksMenu.getItems().add(menuItem);
 
-        return true;
+        return menuItem;
+    }
+
+    /**
+     * @param bookmarkName the name of the bookmark.
+     * @param bookmarkUrl  the url of the bookmark.
+     *
+     * @return true if the url was not already bookmarked in the top bookmark folder, otherwise false.
+     */
+    public static boolean installBookmark(final String bookmarkName, final String bookmarkUrl) {
+        final BookmarkStore store = BookmarkStore.getInstance();
+
+        return store.add(store.getRoot(), bookmarkName, bookmarkUrl) != null;
     }
 
 }
@@ -23,8 +23,6 @@ package org.jewelsea.willow.navigation;
 
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Side;
@@ -34,14 +32,17 @@ import javafx.scene.control.MenuItem;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import org.jewelsea.willow.browser.BrowserWindow;
+import org.jewelsea.willow.util.RingBuffer;
+
+import java.util.List;
 
 /**
  * Manages history for a browser tab.
  */
 public class History {
     private static final int MAX_HISTORY_SIZE = 100; // max number of locations we will store in the history.
-    // history items - higher indexed items are later in the history.
-    private final ObservableList<String> items = FXCollections.observableArrayList();
+    // history items - higher indexed items are later in the history; the oldest item is dropped when the history is full.
+    private final RingBuffer<String> items = new RingBuffer<>(MAX_HISTORY_SIZE);
     private final BrowserWindow browser;      // browser window (contains WebView) managed by this history.
     private int pointer = 0;                  // index into the history list for the currently displayed page from the history.
     private Integer navPointer = null;        // index into the history list for a new page to be displayed page in the history.
@@ -82,7 +83,7 @@ public class History {
      * or the current location if the provided index is out of the current history index range
      */
     public String requestNav(Integer index) {
-        if (index >= 0 && index <= items.size()) {
+        if (index >= 0 && index < items.size()) {
             this.navPointer = index;
         }
 
@@ -113,20 +114,64 @@ public class History {
 
     /**
      * updates the history list to reflect a navigation to the given location.
+     *
+     * @return true if the location is a new navigation, false if it moved within the history list, e.g. back, forward
+     * or to the page of a restored history.
      */
-    public void executeNav(String newLoc) { // todo add some validation that this is the request nav, so that we ensure all updates occur correctly.
+    public boolean executeNav(String newLoc) { // todo add some validation that this is the request nav, so that we ensure all updates occur correctly.
+        boolean newNav = true;
         if (navPointer == null) { // standard navPointer.
             if (pointer < items.size() - 1) { // wipe any forward button history.
-                items.remove(pointer + 1, items.size());
+                items.truncate(pointer + 1);
             }
             items.add(newLoc);
-            if (items.size() >= MAX_HISTORY_SIZE) {
-                items.remove(0);
-            }
             pointer = items.size() - 1;
         } else { // navPointer using history list.
             pointer = navPointer;
             navPointer = null;
+            newNav = false;
+        }
+
+        canNavForward.set(pointer < items.size() - 1);
+        canNavBackward.set(pointer > 0);
+
+        return newNav;
+    }
+
+    /**
+     * @return a copy of the history items, earliest first.
+     */
+    public List<String> getItems() {
+        return items.toList();
+    }
+
+    /**
+     * @return index into the history items for the currently displayed page.
+     */
+    public int getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Replace the history, e.g. with a history saved when a tab was put to sleep.
+     * The browser is expected to navigate to the location at the pointer next.
+     *
+     * @param restoredItems the history items, earliest first.
+     * @param restoredPointer index into the history items for the page the browser is about to display.
+     */
+    public void restore(List<String> restoredItems, int restoredPointer) {
+        items.clear();
+        for (String item : restoredItems) {
+            items.add(item);
+        }
+        if (items.isEmpty()) {
+            pointer = 0;
+            navPointer = null;
+        } else {
+            // the oldest items were dropped if there were more than the history holds.
+            final int dropped = restoredItems.size() - items.size();
+            pointer = Math.max(0, Math.min(items.size() - 1, restoredPointer - dropped));
+            navPointer = pointer;
         }
 
         canNavForward.set(pointer < items.size() - 1);
@@ -207,4 +252,4 @@ public class History {
     }
 }
 
-// todo webview now has a built in history, so most of the logic in this class can likely be replaced.
\ No newline at end of file
+// todo webview now has a built in history, so most of the logic in this class can likely be replaced.
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.navigation;
+
+import org.jewelsea.willow.util.JsonReader;
+import org.jewelsea.willow.util.JsonWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the history as JSON, for moving it between browsers.
+ *
+ * The file holds an object with an "entries" array (a bare array of entries is read too), one entry per location:
+ *
+ *   { "format": "willow-history", "version": 1, "entries": [
+ *     { "url": "http://...", "title": "...", "visitCount": 12, "visits": [ 1381234567890, ... ] }
+ *   ] }
+ *
+ * "visits" holds the times of recent visits in milliseconds since the epoch, "lastVisit" may be given instead.  Files
+ * are read and written a token at a time and entries are added to the history in batches, so the size of the file
+ * doesn't matter.
+ */
+public class HistoryJsonFile {
+    private static final String FORMAT = "willow-history";
+    private static final int VERSION = 1;
+    /** number of entries added to the history at a time. */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Add the history in a file to the history.  Visits are added to those already known, so importing the same file
+     * twice counts its visits twice.
+     *
+     * @param file the file to read.
+     * @return the number of entries read.
+     * @throws IOException if the file can't be read, entries read before the problem are kept.
+     */
+    public static int importFrom(Path file) throws IOException {
+        final HistoryStore history = HistoryStore.getInstance();
+        final List<HistoryStore.Entry> batch = new ArrayList<>(BATCH_SIZE);
+        int count = 0;
+
+        try (JsonReader in = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            if (in.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                // find the entries, skipping the format and version.
+                in.beginObject();
+                while (in.hasNext()) {
+                    if ("entries".equals(in.nextName())) {
+                        count += readEntries(in, history, batch);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+            } else {
+                count += readEntries(in, history, batch);
+            }
+        } finally {
+            if (!batch.isEmpty()) history.importEntries(batch);
+        }
+
+        return count;
+    }
+
+    private static int readEntries(JsonReader in, HistoryStore history, List<HistoryStore.Entry> batch) throws IOException {
+        int count = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            HistoryStore.Entry entry = readEntry(in);
+            if (entry == null) continue;
+
+            batch.add(entry);
+            count++;
+            if (batch.size() == BATCH_SIZE) {
+                history.importEntries(batch);
+                batch.clear();
+            }
+        }
+        in.endArray();
+
+        return count;
+    }
+
+    /**
+     * @return the next entry, or null if it has no location.
+     */
+    private static HistoryStore.Entry readEntry(JsonReader in) throws IOException {
+        String location = null;
+        String title = null;
+        long visitCount = 0;
+        long lastVisit = 0;
+        final List<Long> visits = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "url":
+                case "location":
+                    location = in.nextString();
+                    break;
+                case "title":
+                    title = in.nextString();
+                    break;
+                case "visitCount":
+                    visitCount = in.nextLong();
+                    break;
+                case "lastVisit":
+                    lastVisit = in.nextLong();
+                    break;
+                case "visits":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        visits.add(in.nextLong());
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (location == null || location.isEmpty()) return null;
+
+        final HistoryStore.Entry entry = new HistoryStore.Entry(location);
+        if (visits.isEmpty() && lastVisit > 0) visits.add(lastVisit);
+        for (long visit : visits) {
+            entry.addVisit(visit);
+        }
+        entry.addVisitCount((int) Math.min(Integer.MAX_VALUE, visitCount - visits.size()));
+        if (title != null && !title.isEmpty()) entry.setTitle(title);
+
+        return entry;
+    }
+
+    /**
+     * Write the history to a file.
+     *
+     * @param file the file to write, replaced if it exists.
+     * @return the number of entries written.
+     * @throws IOException if the file can't be written.
+     */
+    public static int exportTo(Path file) throws IOException {
+        final List<HistoryStore.Entry> entries = HistoryStore.getInstance().copyEntries();
+
+        try (JsonWriter out = new JsonWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.beginObject();
+            out.name("format").value(FORMAT);
+            out.name("version").value(VERSION);
+            out.name("entries").beginArray();
+            for (HistoryStore.Entry entry : entries) {
+                out.newLine().beginObject();
+                out.name("url").value(entry.getLocation());
+                if (entry.getTitle() != null) out.name("title").value(entry.getTitle());
+                out.name("visitCount").value(entry.getVisitCount());
+                out.name("visits").beginArray();
+                for (long visit : entry.getRecentVisits()) {
+                    out.value(visit);
+                }
+                out.endArray();
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        return entries.size();
+    }
+}
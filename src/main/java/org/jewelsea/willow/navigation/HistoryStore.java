@@ -0,0 +1,637 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.navigation;
+
+import org.jewelsea.willow.util.StorageUtil;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The locations visited in every tab, kept between runs, for finding places the user has been before.
+ *
+ * Visits are appended to a log on disk by a background thread, so recording a visit never waits for the disk.  The log
+ * is replayed into memory on startup and compacted (rewritten atomically with one record per location) once it is
+ * mostly repeats.  In memory, the locations are kept sorted with their scheme and "www." stripped, so the locations
+ * starting with what the user has typed are found without scanning the whole history, and are ranked by frecency: how
+ * often and how recently they were visited.
+ */
+public class HistoryStore {
+    /** name of the writing thread. */
+    public static final String WRITER_THREAD_NAME = "willow-history-writer";
+    /** max number of locations remembered, the lowest ranked are forgotten first. */
+    public static final int MAX_ENTRIES = 100000;
+
+    /** name of the storage area used for the history. */
+    private static final String STORAGE_AREA = "history";
+    private static final String LOG_FILE = "visits.log";
+    /** identifies the log format, bumped when it changes; logs in other formats are discarded. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private static final byte VISIT_RECORD = 1;
+    private static final byte TITLE_RECORD = 2;
+    private static final byte ENTRY_RECORD = 3;
+
+    /** number of recent visit times kept for each location to compute its frecency. */
+    private static final int RECENT_VISITS = 10;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static HistoryStore instance;
+
+    /**
+     * A location in the history.
+     */
+    public static class Entry {
+        private final String location;
+        private String title;
+        private int visitCount;
+        /** the most recent visit times, most recent last. */
+        private final long[] recentVisits = new long[RECENT_VISITS];
+        private int recentCount;
+
+        Entry(String location) {
+            this.location = location;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        /** @return the title of the page at the location, or null if it isn't known. */
+        public String getTitle() {
+            return title;
+        }
+
+        public int getVisitCount() {
+            return visitCount;
+        }
+
+        /** @return the time of the last visit in milliseconds since the epoch, 0 if never visited. */
+        public long getLastVisit() {
+            return recentCount > 0 ? recentVisits[recentCount - 1] : 0;
+        }
+
+        void addVisit(long time) {
+            visitCount++;
+            addRecentVisit(time);
+        }
+
+        /** count visits whose times aren't known, e.g. older visits in an imported history. */
+        void addVisitCount(int count) {
+            visitCount += Math.max(0, count);
+        }
+
+        void setTitle(String title) {
+            this.title = title;
+        }
+
+        /** @return a copy of the most recent visit times, most recent last. */
+        long[] getRecentVisits() {
+            return Arrays.copyOf(recentVisits, recentCount);
+        }
+
+        /** add another entry's visits for the same location to this one, taking its title if it has one. */
+        private void merge(Entry other) {
+            visitCount += other.visitCount;
+            for (int i = 0; i < other.recentCount; i++) {
+                addRecentVisit(other.recentVisits[i]);
+            }
+            if (other.title != null) title = other.title;
+        }
+
+        private Entry copy() {
+            Entry copy = new Entry(location);
+            copy.merge(this);
+            return copy;
+        }
+
+        private void addRecentVisit(long time) {
+            // keep the times sorted, visits loaded from the log may be older than those recorded since startup.
+            int idx = recentCount;
+            if (recentCount == RECENT_VISITS) {
+                if (time <= recentVisits[0]) return;
+                System.arraycopy(recentVisits, 1, recentVisits, 0, RECENT_VISITS - 1);
+                idx = RECENT_VISITS - 1;
+            } else {
+                recentCount++;
+            }
+            while (idx > 0 && recentVisits[idx - 1] > time) {
+                recentVisits[idx] = recentVisits[idx - 1];
+                idx--;
+            }
+            recentVisits[idx] = time;
+        }
+
+        /**
+         * @return how often and how recently the location was visited, higher is better.  The recent visits are
+         * weighted by age and the average weight scaled up by the total number of visits.
+         */
+        public double frecency(long now) {
+            if (recentCount == 0) return 0;
+
+            double weights = 0;
+            for (int i = 0; i < recentCount; i++) {
+                long ageDays = (now - recentVisits[i]) / DAY_MILLIS;
+                weights += ageDays < 4 ? 100 : ageDays < 14 ? 70 : ageDays < 31 ? 50 : ageDays < 90 ? 30 : 10;
+            }
+            return visitCount * weights / recentCount;
+        }
+    }
+
+    /** location => entry. */
+    private Map<String, Entry> entries = new HashMap<>();
+    /**
+     * index key => entry, for finding locations by what the user typed.  The key is the location without its scheme or
+     * www in lower case, followed by the location itself, so e.g. http://x.com and https://www.X.com both have keys.
+     */
+    private NavigableMap<String, Entry> searchIndex = new TreeMap<>();
+    /** records in the log, to tell when it's worth compacting. */
+    private long logRecords;
+    /** records in memory but not yet in the log, the log is only compacted when there are none. */
+    private int pendingRecords;
+    /** counts changes to the history, so copies of it can tell when they are out of date. */
+    private long modifications;
+
+    /** the log file or null if the history can't be stored. */
+    private final Path logFile;
+    private DataOutputStream log;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, WRITER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized HistoryStore getInstance() {
+        if (instance == null) instance = new HistoryStore();
+        return instance;
+    }
+
+    private HistoryStore() {
+        Path file = null;
+        try {
+            file = StorageUtil.getStorageDir(STORAGE_AREA).resolve(LOG_FILE);
+        } catch (IOException e) {
+            System.out.println("Unable to create history storage, the history will not be saved: " + e);
+        }
+        logFile = file;
+
+        // load in the background, visits recorded in the meantime are merged with the loaded history.
+        if (logFile != null) {
+            writer.execute(this::load);
+        }
+    }
+
+    /**
+     * Record a visit to a location.
+     *
+     * @param location the location visited.
+     */
+    public void recordVisit(String location) {
+        if (!isRecordable(location)) return;
+
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            entryFor(location).addVisit(now);
+            modifications++;
+            if (logFile != null) pendingRecords++;
+        }
+        append(1, out -> {
+            out.writeByte(VISIT_RECORD);
+            out.writeLong(now);
+            StorageUtil.writeString(out, location);
+        });
+    }
+
+    /**
+     * Record the title of the page at a location.
+     *
+     * @param location the location of the page.
+     * @param title    the title of the page.
+     */
+    public void recordTitle(String location, String title) {
+        if (!isRecordable(location) || title == null || title.isEmpty()) return;
+
+        synchronized (this) {
+            Entry entry = entries.get(location);
+            if (entry == null || title.equals(entry.title)) return;
+            entry.title = title;
+            modifications++;
+            if (logFile != null) pendingRecords++;
+        }
+        append(1, out -> {
+            out.writeByte(TITLE_RECORD);
+            StorageUtil.writeString(out, location);
+            StorageUtil.writeString(out, title);
+        });
+    }
+
+    /**
+     * Find the locations which start with some text, e.g. "goo" finds http://www.google.com/...
+     * The scheme and "www." are ignored on both sides, as is case.
+     *
+     * @param text  the start of the locations to find.
+     * @param limit the max number of locations to return.
+     * @return the locations found, highest frecency first.
+     */
+    public synchronized List<Entry> search(String text, int limit) {
+        final String key = searchKey(text);
+        if (key.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        // rank every match, keeping the best few with the lowest ranked at the head of the queue.
+        final long now = System.currentTimeMillis();
+        final PriorityQueue<Ranked> best = new PriorityQueue<>(Comparator.comparingDouble(ranked -> ranked.frecency));
+        for (Entry entry : searchIndex.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            final double frecency = entry.frecency(now);
+            if (best.size() == limit && frecency <= best.peek().frecency) continue;
+            best.add(new Ranked(entry, frecency));
+            if (best.size() > limit) best.poll();
+        }
+
+        final List<Entry> found = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            found.add(0, best.poll().entry);
+        }
+        return found;
+    }
+
+    /**
+     * @return the location's history entry, or null if it hasn't been visited.
+     */
+    public synchronized Entry get(String location) {
+        return entries.get(location);
+    }
+
+    /** @return the number of locations in the history. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Visit every location in the history, while holding the history's lock so entries don't change underneath.
+     *
+     * @param action what to do with each entry.
+     */
+    public synchronized void forEachEntry(Consumer<Entry> action) {
+        entries.values().forEach(action);
+    }
+
+    /**
+     * Add visits from elsewhere, e.g. another browser's history, to the history.  Titles the history already has are
+     * kept.
+     *
+     * @param imported entries holding the visits to add, with their titles.
+     * @return the number of entries added.
+     */
+    int importEntries(List<Entry> imported) {
+        final List<Entry> added = new ArrayList<>(imported.size());
+        final List<String> titles = new ArrayList<>(imported.size());
+        synchronized (this) {
+            for (Entry entry : imported) {
+                if (!isRecordable(entry.location)) continue;
+
+                Entry existing = entryFor(entry.location);
+                String title = existing.title;
+                existing.merge(entry);
+                if (title != null) existing.title = title;
+
+                added.add(entry);
+                titles.add(existing.title);
+            }
+            if (added.isEmpty()) return 0;
+
+            modifications++;
+            if (logFile != null) pendingRecords++;
+        }
+
+        // the whole batch is written by one task, rather than queueing a task for each entry.
+        append(added.size(), out -> {
+            for (int i = 0; i < added.size(); i++) {
+                writeEntry(out, added.get(i), titles.get(i));
+            }
+        });
+
+        return added.size();
+    }
+
+    /**
+     * @return a copy of every entry in the history, e.g. for exporting it.
+     */
+    synchronized List<Entry> copyEntries() {
+        final List<Entry> copies = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            copies.add(entry.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * @return a count which changes whenever the history does.
+     */
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Wait for the history to be written, e.g. as the browser exits.
+     */
+    public void flush() {
+        try {
+            writer.submit(() -> {
+                if (log != null) log.flush();
+                return null;
+            }).get();
+        } catch (Exception e) {
+            System.out.println("Unable to write history: " + e);
+        }
+    }
+
+    private Entry entryFor(String location) {
+        Entry entry = entries.get(location);
+        if (entry == null) {
+            entry = new Entry(location);
+            entries.put(location, entry);
+            searchIndex.put(indexKey(location), entry);
+        }
+        return entry;
+    }
+
+    private static boolean isRecordable(String location) {
+        return location != null && !location.isEmpty() && !location.startsWith("about:") && !location.startsWith("data:");
+    }
+
+    /**
+     * @return the text used to look a location up: lower case, without its scheme or "www."
+     */
+    static String searchKey(String location) {
+        String key = location.trim().toLowerCase(Locale.ROOT);
+        int schemeEnd = key.indexOf("://");
+        if (schemeEnd >= 0) key = key.substring(schemeEnd + 3);
+        if (key.startsWith("www.")) key = key.substring(4);
+        return key;
+    }
+
+    /** @return the key of a location in the search index, unique to the location. */
+    private static String indexKey(String location) {
+        return searchKey(location) + '\0' + location;
+    }
+
+    /** an entry ranked by its frecency at the time of a search. */
+    private static class Ranked {
+        final Entry entry;
+        final double frecency;
+
+        Ranked(Entry entry, double frecency) {
+            this.entry = entry;
+            this.frecency = frecency;
+        }
+    }
+
+    /**
+     * Write an entry record, which adds the entry's visits to any the location already has when the log is replayed.
+     */
+    private static void writeEntry(DataOutputStream out, Entry entry, String title) throws IOException {
+        out.writeByte(ENTRY_RECORD);
+        StorageUtil.writeString(out, entry.location);
+        StorageUtil.writeString(out, title);
+        out.writeInt(entry.visitCount);
+        out.writeInt(entry.recentCount);
+        for (int i = 0; i < entry.recentCount; i++) {
+            out.writeLong(entry.recentVisits[i]);
+        }
+    }
+
+    /** writes a record to the log. */
+    private interface Record {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Queue records to be written to the log.
+     *
+     * @param records the number of records written.
+     * @param record  writes the records.
+     */
+    private void append(int records, Record record) {
+        if (logFile == null) return;
+
+        writer.execute(() -> {
+            try {
+                if (log == null) {
+                    log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                            logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+                    )));
+                    if (Files.size(logFile) == 0) {
+                        log.writeInt(FORMAT_VERSION);
+                    }
+                }
+                record.write(log);
+                log.flush();
+            } catch (IOException e) {
+                System.out.println("Unable to write history: " + e);
+            }
+            synchronized (this) {
+                pendingRecords--;
+                logRecords += records;
+            }
+            if (shouldCompact()) compact();
+        });
+    }
+
+    /**
+     * Replay the log into memory, merging in visits recorded since startup.  Runs on the writer thread.
+     */
+    private void load() {
+        final Map<String, Entry> loaded = new HashMap<>();
+        long records = 0;
+        long validLength = 0;
+
+        if (Files.exists(logFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+                if (in.readInt() == FORMAT_VERSION) {
+                    validLength = 4;
+                    CountingReader reader = new CountingReader(in);
+                    while (true) {
+                        try {
+                            reader.readRecord(loaded);
+                        } catch (EOFException e) {
+                            // the last record was cut short by a crash, or this is the end of the log.
+                            break;
+                        }
+                        records++;
+                        validLength += reader.lastRecordLength;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Unable to read history, keeping what could be read: " + e);
+            }
+
+            // drop anything after the last whole record, so new records aren't appended to a broken one.
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                if (validLength == 0) {
+                    channel.truncate(0);
+                } else if (channel.size() > validLength) {
+                    channel.truncate(validLength);
+                }
+            } catch (IOException e) {
+                System.out.println("Unable to repair history log: " + e);
+            }
+        }
+
+        synchronized (this) {
+            // merge in the visits recorded while we were loading.
+            for (Entry live : entries.values()) {
+                loaded.computeIfAbsent(live.location, Entry::new).merge(live);
+            }
+            entries = loaded;
+            searchIndex = new TreeMap<>();
+            for (Entry entry : entries.values()) {
+                searchIndex.put(indexKey(entry.location), entry);
+            }
+            logRecords = records;
+            modifications++;
+        }
+
+        if (shouldCompact()) compact();
+    }
+
+    private synchronized boolean shouldCompact() {
+        // the compacted log is written from memory, which would repeat any records still to be written.
+        return pendingRecords == 0 && (logRecords > 2L * entries.size() + 1000 || entries.size() > MAX_ENTRIES);
+    }
+
+    /**
+     * Rewrite the log with one record per location, forgetting the lowest ranked locations if there are too many.
+     * Runs on the writer thread.
+     */
+    private void compact() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final int written;
+        synchronized (this) {
+            if (!shouldCompact()) return;
+
+            final long now = System.currentTimeMillis();
+            List<Entry> kept = new ArrayList<>(entries.values());
+            if (kept.size() > MAX_ENTRIES) {
+                kept.sort(Comparator.comparingDouble((Entry entry) -> entry.frecency(now)).reversed());
+                for (Entry forgotten : kept.subList(MAX_ENTRIES, kept.size())) {
+                    entries.remove(forgotten.location);
+                    searchIndex.remove(indexKey(forgotten.location));
+                }
+                kept = kept.subList(0, MAX_ENTRIES);
+                modifications++;
+            }
+
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(FORMAT_VERSION);
+                for (Entry entry : kept) {
+                    writeEntry(out, entry, entry.title);
+                }
+            } catch (IOException e) {
+                // writing to memory can't fail.
+                throw new UncheckedIOException(e);
+            }
+            written = kept.size();
+        }
+
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            StorageUtil.writeAtomically(logFile, bytes.toByteArray());
+            synchronized (this) {
+                logRecords = written;
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to compact history: " + e);
+        }
+    }
+
+    /**
+     * Reads log records, keeping track of how many bytes each took.
+     */
+    private static class CountingReader {
+        private final DataInputStream in;
+        int lastRecordLength;
+
+        CountingReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        void readRecord(Map<String, Entry> loaded) throws IOException {
+            int length = 1;
+            final byte type = in.readByte();
+            switch (type) {
+                case VISIT_RECORD: {
+                    long time = in.readLong();
+                    String location = StorageUtil.readString(in, MAX_STRING_BYTES);
+                    loaded.computeIfAbsent(location, Entry::new).addVisit(time);
+                    length += 8 + stringLength(location);
+                    break;
+                }
+                case TITLE_RECORD: {
+                    String location = StorageUtil.readString(in, MAX_STRING_BYTES);
+                    String title = StorageUtil.readString(in, MAX_STRING_BYTES);
+                    Entry entry = loaded.get(location);
+                    if (entry != null) entry.title = title;
+                    length += stringLength(location) + stringLength(title);
+                    break;
+                }
+                case ENTRY_RECORD: {
+                    String location = StorageUtil.readString(in, MAX_STRING_BYTES);
+                    String title = StorageUtil.readString(in, MAX_STRING_BYTES);
+                    Entry entry = loaded.computeIfAbsent(location, Entry::new);
+                    entry.title = title;
+                    entry.visitCount += in.readInt();
+                    int recent = in.readInt();
+                    if (recent < 0 || recent > RECENT_VISITS) throw new IOException("Corrupt history entry.");
+                    for (int i = 0; i < recent; i++) {
+                        entry.addRecentVisit(in.readLong());
+                    }
+                    length += stringLength(location) + stringLength(title) + 8 + 8 * recent;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown history record " + type);
+            }
+            lastRecordLength = length;
+        }
+
+        private static int stringLength(String value) {
+            return 4 + (value != null ? value.getBytes(java.nio.charset.StandardCharsets.UTF_8).length : 0);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.navigation;
+
+import org.jewelsea.willow.bookmark.BookmarkStore;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Suggests locations for what the user is typing into a location field, from the history and the bookmarks.
+ *
+ * Suggestions are looked up in a SuggestionIndex, on a background thread so typing is never held up.  The index is a
+ * copy of the history and bookmarks, rebuilt on another thread when they change (at most every few seconds), and
+ * searches use the previous index until the new one is ready.
+ */
+public class LocationSuggester {
+    /** name of the thread which looks up suggestions. */
+    public static final String SEARCH_THREAD_NAME = "willow-suggester";
+    /** name of the thread which builds the suggestion index. */
+    public static final String INDEX_THREAD_NAME = "willow-suggestion-indexer";
+
+    /** min time between rebuilds of the index. */
+    private static final long REBUILD_INTERVAL_MILLIS = 3000;
+    /** added to the score of bookmarked locations, about what a location visited a few times this week scores. */
+    private static final double BOOKMARK_SCORE = 300;
+
+    private static LocationSuggester instance;
+
+    /**
+     * A suggested location.
+     */
+    public static class Suggestion {
+        private final String location;
+        private final String title;
+        private final boolean bookmarked;
+        private final double score;
+
+        Suggestion(String location, String title, boolean bookmarked, double score) {
+            this.location = location;
+            this.title = title;
+            this.bookmarked = bookmarked;
+            this.score = score;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        /** @return the title of the page at the location or the name of its bookmark, null if neither is known. */
+        public String getTitle() {
+            return title;
+        }
+
+        public boolean isBookmarked() {
+            return bookmarked;
+        }
+
+        /** @return how good a suggestion the location is, higher is better. */
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private volatile SuggestionIndex index;
+    private long indexedHistoryModifications = -1;
+    private long indexedBookmarkModifications = -1;
+    private long lastRebuild;
+    private boolean rebuildQueued;
+
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, SEARCH_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, INDEX_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized LocationSuggester getInstance() {
+        if (instance == null) instance = new LocationSuggester();
+        return instance;
+    }
+
+    private LocationSuggester() {
+    }
+
+    /**
+     * Find locations to suggest for some text, in the background.
+     *
+     * @param text  what the user has typed.
+     * @param limit max number of suggestions.
+     * @return the suggestions, best first.
+     */
+    public CompletableFuture<List<Suggestion>> suggest(String text, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            SuggestionIndex current = index;
+            if (current == null) {
+                // nothing to search yet, so build the first index rather than suggesting nothing.
+                current = rebuild();
+            } else {
+                rebuildIfStale();
+            }
+            return current.search(text, limit);
+        }, searcher);
+    }
+
+    /**
+     * Start building the index in the background, so it is ready by the time the user starts typing.
+     */
+    public synchronized void warmUp() {
+        if (index != null || rebuildQueued) return;
+
+        rebuildQueued = true;
+        indexer.execute(this::rebuild);
+    }
+
+    private synchronized void rebuildIfStale() {
+        if (rebuildQueued || System.currentTimeMillis() - lastRebuild < REBUILD_INTERVAL_MILLIS) return;
+        if (indexedHistoryModifications == HistoryStore.getInstance().getModifications()
+                && indexedBookmarkModifications == BookmarkStore.getInstance().getModifications()) return;
+
+        rebuildQueued = true;
+        indexer.execute(this::rebuild);
+    }
+
+    /**
+     * Index the current history and bookmarks.
+     */
+    private SuggestionIndex rebuild() {
+        final HistoryStore history = HistoryStore.getInstance();
+        final long historyModifications = history.getModifications();
+        final long now = System.currentTimeMillis();
+
+        // copy what we need from the history, so it is only locked briefly.
+        final Map<String, Suggestion> candidates = new HashMap<>(history.size() * 2);
+        history.forEachEntry(entry -> candidates.put(
+                entry.getLocation(),
+                new Suggestion(entry.getLocation(), entry.getTitle(), false, entry.frecency(now))
+        ));
+
+        final BookmarkStore bookmarks = BookmarkStore.getInstance();
+        final long indexedBookmarks = bookmarks.getModifications();
+        bookmarks.forEachBookmark(bookmark -> {
+            Suggestion visited = candidates.get(bookmark.getLocation());
+            if (visited != null && visited.isBookmarked()) return; // bookmarked in more than one folder.
+            candidates.put(bookmark.getLocation(), new Suggestion(
+                    bookmark.getLocation(),
+                    visited != null && visited.getTitle() != null ? visited.getTitle() : bookmark.getName(),
+                    true,
+                    BOOKMARK_SCORE + (visited != null ? visited.getScore() : 0)
+            ));
+        });
+
+        final SuggestionIndex rebuilt = new SuggestionIndex(candidates.values());
+        synchronized (this) {
+            index = rebuilt;
+            indexedHistoryModifications = historyModifications;
+            indexedBookmarkModifications = indexedBookmarks;
+            lastRebuild = System.currentTimeMillis();
+            rebuildQueued = false;
+        }
+
+        return rebuilt;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.navigation;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Side;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import org.jewelsea.willow.util.Preconnector;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Drops a list of suggested locations down from a location field as the user types into it.
+ *
+ * Suggestions are only looked up once the user pauses typing, and are discarded if the field has changed by the time
+ * they arrive.  The arrow keys and enter choose a suggestion, as does clicking it.
+ */
+public class LocationSuggestions {
+    /** max number of suggestions shown. */
+    private static final int MAX_SUGGESTIONS = 8;
+    /** how long the user has to stop typing for before suggestions are looked up. */
+    private static final Duration TYPING_PAUSE = Duration.millis(100);
+
+    private final TextField field;
+    private final Consumer<String> navigator;
+    private final ContextMenu menu = new ContextMenu();
+    private final PauseTransition typingPause = new PauseTransition(TYPING_PAUSE);
+    private CompletableFuture<?> pendingSuggestions;
+    /** true if a suggestion was just chosen with the enter key, whose release the field shouldn't act on. */
+    private boolean swallowEnterRelease;
+
+    /**
+     * Offer suggestions for a location field.
+     *
+     * @param field     the field the user types locations into.
+     * @param navigator navigates to a chosen location.
+     */
+    public static void install(TextField field, Consumer<String> navigator) {
+        new LocationSuggestions(field, navigator);
+    }
+
+    private LocationSuggestions(TextField field, Consumer<String> navigator) {
+        this.field = field;
+        this.navigator = navigator;
+
+        LocationSuggester.getInstance().warmUp();
+
+        menu.getStyleClass().add("location-suggestions");
+        typingPause.setOnFinished(event -> lookUp());
+
+        // only keys typed by the user bring up suggestions, not the location changing as the browser navigates.
+        field.addEventHandler(KeyEvent.KEY_TYPED, event -> typingPause.playFromStart());
+        field.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            swallowEnterRelease = false;
+            if (event.getCode() == KeyCode.ENTER || event.getCode() == KeyCode.ESCAPE) {
+                dismiss();
+            }
+            if (event.getCode() == KeyCode.ESCAPE) {
+                Preconnector.getInstance().cancelAll();
+            }
+        });
+        field.addEventFilter(KeyEvent.KEY_RELEASED, event -> {
+            if (swallowEnterRelease && event.getCode() == KeyCode.ENTER) {
+                swallowEnterRelease = false;
+                event.consume();
+            }
+        });
+        field.focusedProperty().addListener((observable, wasFocused, focused) -> {
+            if (!focused) dismiss();
+        });
+    }
+
+    private void lookUp() {
+        final String text = field.getText();
+        if (!field.isFocused() || text == null || text.trim().isEmpty()) {
+            dismiss();
+            return;
+        }
+
+        if (pendingSuggestions != null) pendingSuggestions.cancel(false);
+        pendingSuggestions = LocationSuggester.getInstance().suggest(text, MAX_SUGGESTIONS)
+                .thenAcceptAsync(suggestions -> show(text, suggestions), Platform::runLater)
+                .exceptionally(e -> {
+                    // cancelled as the user typed on, or there was nothing to suggest - no action required.
+                    return null;
+                });
+    }
+
+    private void show(String text, List<LocationSuggester.Suggestion> suggestions) {
+        // the user has typed on or moved away since the suggestions were asked for.
+        if (!text.equals(field.getText()) || !field.isFocused()) return;
+
+        // get ready to go where the user looks to be heading: the best suggestion, or else what they typed.
+        Preconnector.getInstance().preconnect(suggestions.isEmpty() ? text : suggestions.get(0).getLocation());
+
+        if (suggestions.isEmpty()) {
+            menu.hide();
+            return;
+        }
+
+        menu.getItems().clear();
+        for (LocationSuggester.Suggestion suggestion : suggestions) {
+            menu.getItems().add(createItem(suggestion));
+        }
+        if (!menu.isShowing()) {
+            menu.show(field, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    private CustomMenuItem createItem(LocationSuggester.Suggestion suggestion) {
+        final Label location = new Label(suggestion.getLocation());
+        location.getStyleClass().add("suggestion-location");
+        final VBox layout = new VBox(location);
+        if (suggestion.getTitle() != null) {
+            final Label title = new Label(suggestion.getTitle());
+            title.getStyleClass().add("suggestion-title");
+            layout.getChildren().add(0, title);
+        }
+        if (suggestion.isBookmarked()) {
+            layout.getStyleClass().add("bookmarked");
+        }
+        layout.setPrefWidth(field.getWidth());
+        layout.setMaxWidth(field.getWidth());
+
+        final CustomMenuItem item = new CustomMenuItem(layout, true);
+        item.setOnAction(event -> {
+            swallowEnterRelease = true;
+            dismiss();
+            field.setText(suggestion.getLocation());
+            navigator.accept(suggestion.getLocation());
+        });
+
+        return item;
+    }
+
+    private void dismiss() {
+        typingPause.stop();
+        if (pendingSuggestions != null) {
+            pendingSuggestions.cancel(false);
+            pendingSuggestions = null;
+        }
+        menu.hide();
+    }
+}
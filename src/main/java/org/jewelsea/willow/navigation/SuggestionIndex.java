@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.navigation;
+
+import java.util.*;
+
+/**
+ * An immutable index for finding the locations which start with what the user has typed.
+ *
+ * Each location is indexed under a few keys: the location without its scheme or "www.", the location from each of its
+ * parent domains (so "google" finds mail.google.com) and each word of its title.  The keys are kept in one sorted
+ * array, so a search is a binary search followed by a scan of the keys with the typed prefix.
+ *
+ * A prefix of a letter or two matches too many keys to scan on every keystroke, so for each such prefix the index
+ * lists the suggestions with a key starting with it, best first, and a search takes the first few which match.
+ */
+final class SuggestionIndex {
+    /** prefixes up to this long have their suggestions listed best first, rather than being scanned. */
+    private static final int SHORT_PREFIX = 2;
+    /** shortest title word which is indexed. */
+    private static final int MIN_WORD_LENGTH = 2;
+
+    /** the suggestions, best first. */
+    private final LocationSuggester.Suggestion[] suggestions;
+    /** the keys, sorted. */
+    private final String[] keys;
+    /** the suggestion each key belongs to, index into suggestions. */
+    private final int[] ids;
+    /** short prefix => the suggestions with a key starting with it, index into suggestions in ascending (best) order. */
+    private final Map<String, int[]> shortPrefixIds = new HashMap<>();
+
+    private static class Key implements Comparable<Key> {
+        final String text;
+        final int id;
+
+        Key(String text, int id) {
+            this.text = text;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            return text.compareTo(other.text);
+        }
+    }
+
+    SuggestionIndex(Collection<LocationSuggester.Suggestion> candidates) {
+        suggestions = candidates.toArray(new LocationSuggester.Suggestion[0]);
+        Arrays.sort(suggestions, Comparator.comparingDouble(LocationSuggester.Suggestion::getScore).reversed());
+
+        final List<Key> allKeys = new ArrayList<>(suggestions.length * 4);
+        final Set<String> suggestionKeys = new HashSet<>();
+        for (int id = 0; id < suggestions.length; id++) {
+            suggestionKeys.clear();
+            collectKeys(suggestions[id], suggestionKeys);
+            for (String key : suggestionKeys) {
+                allKeys.add(new Key(key, id));
+            }
+        }
+        Collections.sort(allKeys);
+
+        keys = new String[allKeys.size()];
+        ids = new int[allKeys.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = allKeys.get(i).text;
+            ids[i] = allKeys.get(i).id;
+        }
+
+        final Map<String, BitSet> shortPrefixes = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            for (int length = 1; length <= Math.min(SHORT_PREFIX, keys[i].length()); length++) {
+                shortPrefixes.computeIfAbsent(keys[i].substring(0, length), prefix -> new BitSet()).set(ids[i]);
+            }
+        }
+        shortPrefixes.forEach((prefix, prefixIds) -> shortPrefixIds.put(prefix, prefixIds.stream().toArray()));
+    }
+
+    private static void collectKeys(LocationSuggester.Suggestion suggestion, Set<String> keys) {
+        final String location = HistoryStore.searchKey(suggestion.getLocation());
+        keys.add(location);
+
+        // the location from each parent domain, e.g. mail.google.com/x => google.com/x, but not just com/x.
+        int hostEnd = location.length();
+        for (char separator : new char[] { '/', ':', '?', '#' }) {
+            int idx = location.indexOf(separator);
+            if (idx >= 0 && idx < hostEnd) hostEnd = idx;
+        }
+        int dot = location.indexOf('.');
+        while (dot >= 0 && dot < hostEnd && location.indexOf('.', dot + 1) >= 0
+                && location.indexOf('.', dot + 1) < hostEnd) {
+            keys.add(location.substring(dot + 1));
+            dot = location.indexOf('.', dot + 1);
+        }
+
+        final String title = suggestion.getTitle();
+        if (title != null) {
+            for (String word : title.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (word.length() >= MIN_WORD_LENGTH) keys.add(word);
+            }
+        }
+    }
+
+    /**
+     * @param text  what the user typed, the first word is matched against the keys and any others must appear
+     *              somewhere in the location or title.
+     * @param limit max number of suggestions to return.
+     * @return the best suggestions for the text, best first.
+     */
+    List<LocationSuggester.Suggestion> search(String text, int limit) {
+        final String query = HistoryStore.searchKey(text);
+        if (query.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        final String[] words = query.split("\\s+");
+        final String prefix = words[0];
+
+        if (prefix.length() <= SHORT_PREFIX) {
+            // the suggestions are listed best first, so the first few which match are the best.
+            final List<LocationSuggester.Suggestion> found = new ArrayList<>(limit);
+            for (int id : shortPrefixIds.getOrDefault(prefix, new int[0])) {
+                final LocationSuggester.Suggestion suggestion = suggestions[id];
+                if (words.length > 1 && !containsAll(suggestion, words)) continue;
+                found.add(suggestion);
+                if (found.size() == limit) break;
+            }
+            return found;
+        }
+
+        // keep the best few of the matches, the lowest scored at the head of the queue.
+        final PriorityQueue<LocationSuggester.Suggestion> best = new PriorityQueue<>(
+                Comparator.comparingDouble(LocationSuggester.Suggestion::getScore)
+        );
+        final BitSet seen = new BitSet();
+        int idx = Arrays.binarySearch(keys, prefix);
+        if (idx < 0) idx = -idx - 1;
+        for (; idx < keys.length && keys[idx].startsWith(prefix); idx++) {
+            final int id = ids[idx];
+            if (seen.get(id)) continue;
+            seen.set(id);
+
+            final LocationSuggester.Suggestion suggestion = suggestions[id];
+            if (best.size() == limit && suggestion.getScore() <= best.peek().getScore()) continue;
+            if (words.length > 1 && !containsAll(suggestion, words)) continue;
+            best.add(suggestion);
+            if (best.size() > limit) best.poll();
+        }
+
+        final List<LocationSuggester.Suggestion> found = new ArrayList<>(best);
+        found.sort(Comparator.comparingDouble(LocationSuggester.Suggestion::getScore).reversed());
+        return found;
+    }
+
+    private static boolean containsAll(LocationSuggester.Suggestion suggestion, String[] words) {
+        for (int i = 1; i < words.length; i++) {
+            if (!containsIgnoreCase(suggestion.getLocation(), words[i])
+                    && !containsIgnoreCase(suggestion.getTitle(), words[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if some text contains a lower case word, ignoring case, without copying the text. */
+    private static boolean containsIgnoreCase(String text, String word) {
+        if (text == null) return false;
+        for (int i = 0; i <= text.length() - word.length(); i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) return true;
+        }
+        return false;
+    }
+
+    /** @return the number of locations indexed. */
+    int size() {
+        return suggestions.length;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFObject;
+import com.sun.pdfview.font.FontSupport;
+import com.sun.pdfview.font.ttf.AdobeGlyphList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Turns the bytes of a string shown in a pdf font into text.
+ *
+ * A font's ToUnicode CMap is used when it has one.  Otherwise a simple font's codes are looked up through its
+ * encoding (a base encoding with any Differences) and the Adobe glyph list, and a composite font's codes are only
+ * decoded if its CMap is a Unicode one.  Codes which can't be turned into text are dropped, so they aren't indexed
+ * as garbage; fonts with no usable information at all can't decode anything.
+ */
+final class FontDecoder {
+    /** max number of codes a single bfrange of a ToUnicode CMap may cover, guards against malformed documents. */
+    private static final int MAX_RANGE_CODES = 0x10000;
+
+    /** decodes strings shown before any font is selected, as PDFDocEncoding or UTF-16 when they have a byte order mark. */
+    static final FontDecoder DEFAULT = new FontDecoder(null, false, false, null);
+    /** decodes nothing, for fonts which can't be found or read. */
+    static final FontDecoder UNDECODABLE = new FontDecoder(null, false, true, null);
+
+    /** the text of each code of a simple font, null for codes with no known text; null for composite fonts. */
+    private final String[] simpleCodes;
+    /** true if the codes of a composite font are UTF-16 code units. */
+    private final boolean utf16;
+    /** true if no code of the font can be turned into text. */
+    private final boolean undecodable;
+    /** the font's ToUnicode CMap, or null if it doesn't have one. */
+    private final ToUnicode toUnicode;
+
+    private FontDecoder(String[] simpleCodes, boolean utf16, boolean undecodable, ToUnicode toUnicode) {
+        this.simpleCodes = simpleCodes;
+        this.utf16 = utf16;
+        this.undecodable = undecodable;
+        this.toUnicode = toUnicode;
+    }
+
+    /**
+     * @param font a font dictionary.
+     * @return a decoder for the strings shown in the font.
+     * @throws IOException if the font can't be read.
+     */
+    static FontDecoder forFont(PDFObject font) throws IOException {
+        ToUnicode toUnicode = null;
+        PDFObject toUnicodeStream = font.getDictRef("ToUnicode");
+        if (toUnicodeStream != null && toUnicodeStream.getType() == PDFObject.STREAM) {
+            byte[] cmap = toUnicodeStream.getStream();
+            if (cmap != null) toUnicode = ToUnicode.parse(cmap);
+        }
+
+        PDFObject subtype = font.getDictRef("Subtype");
+        PDFObject encoding = font.getDictRef("Encoding");
+        if (subtype != null && "Type0".equals(subtype.getStringValue())) {
+            // composite fonts show two byte codes, e.g. glyph ids for Identity-H, which only a Unicode CMap explains.
+            String cmapName = encoding != null && encoding.getType() == PDFObject.NAME ? encoding.getStringValue() : "";
+            boolean utf16 = cmapName.contains("UCS2") || cmapName.contains("UTF16");
+            return new FontDecoder(null, utf16, !utf16 && toUnicode == null, toUnicode);
+        }
+
+        return new FontDecoder(simpleCodes(encoding), false, false, toUnicode);
+    }
+
+    /**
+     * @return the text of a string shown in the font, with any codes which can't be decoded dropped, or null if the
+     * font can't decode anything.
+     */
+    String decode(byte[] bytes) {
+        if (undecodable) return null;
+        if (this == DEFAULT) {
+            if (bytes.length >= 2 && (bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) {
+                return new String(bytes, 2, bytes.length - 2, StandardCharsets.UTF_16BE);
+            }
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        final StringBuilder text = new StringBuilder(bytes.length);
+        int pos = 0;
+        while (pos < bytes.length) {
+            final int length = toUnicode != null
+                    ? toUnicode.codeLength(bytes, pos)
+                    : simpleCodes != null ? 1 : 2;
+            int code = 0;
+            for (int i = 0; i < length; i++) {
+                code = (code << 8) | (pos + i < bytes.length ? bytes[pos + i] & 0xff : 0);
+            }
+            pos += length;
+
+            String mapped = toUnicode != null ? toUnicode.get(code) : null;
+            if (mapped == null && simpleCodes != null && code < simpleCodes.length) {
+                mapped = simpleCodes[code];
+            } else if (mapped == null && utf16) {
+                mapped = String.valueOf((char) code);
+            }
+            if (mapped != null) text.append(mapped);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the text of each code of a simple font with the given encoding, null for codes with no known text.
+     */
+    private static String[] simpleCodes(PDFObject encoding) throws IOException {
+        String baseName = null;
+        PDFObject differences = null;
+        if (encoding != null && encoding.getType() == PDFObject.NAME) {
+            baseName = encoding.getStringValue();
+        } else if (encoding != null && encoding.getType() == PDFObject.DICTIONARY) {
+            PDFObject base = encoding.getDictRef("BaseEncoding");
+            if (base != null) baseName = base.getStringValue();
+            differences = encoding.getDictRef("Differences");
+        }
+
+        final int[] base = "WinAnsiEncoding".equals(baseName) ? FontSupport.winAnsiEncoding
+                : "MacRomanEncoding".equals(baseName) ? FontSupport.macRomanEncoding
+                : FontSupport.standardEncoding;
+        final String[] codes = new String[256];
+        for (int code = 0; code < Math.min(codes.length, base.length); code++) {
+            if (base[code] >= 0) codes[code] = glyphText(FontSupport.getName(base[code]));
+        }
+
+        // differences are a list of codes each followed by the names of the glyphs from that code on.
+        if (differences != null && differences.getType() == PDFObject.ARRAY) {
+            int code = 0;
+            for (PDFObject difference : differences.getArray()) {
+                difference = difference.dereference();
+                if (difference.getType() == PDFObject.NUMBER) {
+                    code = difference.getIntValue();
+                } else if (difference.getType() == PDFObject.NAME) {
+                    if (code >= 0 && code < codes.length) codes[code] = glyphText(difference.getStringValue());
+                    code++;
+                }
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * @return the text of a glyph name, e.g. "a" => "a", "uni0041" => "A", "f_i" => "fi", "one.oldstyle" => "1", or
+     * null if the name isn't a known glyph.
+     */
+    static String glyphText(String name) {
+        if (name == null || name.isEmpty() || ".notdef".equals(name)) return null;
+
+        // variants such as small caps are the same text as the glyph they vary.
+        int dot = name.indexOf('.');
+        if (dot > 0) return glyphText(name.substring(0, dot));
+
+        if (name.indexOf('_') > 0) {
+            StringBuilder ligature = new StringBuilder();
+            for (String part : name.split("_")) {
+                String partText = glyphText(part);
+                if (partText == null) return null;
+                ligature.append(partText);
+            }
+            return ligature.toString();
+        }
+
+        int[] unicodes = AdobeGlyphList.getUnicodeValues(name);
+        if (unicodes != null && unicodes.length > 0) {
+            return new String(unicodes, 0, unicodes.length);
+        }
+
+        try {
+            if (name.startsWith("uni") && name.length() >= 7 && (name.length() - 3) % 4 == 0) {
+                StringBuilder units = new StringBuilder();
+                for (int i = 3; i < name.length(); i += 4) {
+                    units.append((char) Integer.parseInt(name.substring(i, i + 4), 16));
+                }
+                return units.toString();
+            }
+            if (name.startsWith("u") && name.length() >= 5 && name.length() <= 7) {
+                return new String(Character.toChars(Integer.parseInt(name.substring(1), 16)));
+            }
+        } catch (IllegalArgumentException e) {
+            // not a unicode glyph name after all - fall through.
+        }
+        return null;
+    }
+
+    /**
+     * The code to text mappings of a ToUnicode CMap.
+     */
+    private static final class ToUnicode {
+        /** the byte lengths of the codes in the codespace ranges, shortest first. */
+        private final TreeSet<Integer> codeLengths = new TreeSet<>();
+        /** the codespace ranges, each as {length, low, high}. */
+        private final List<int[]> codespaces = new ArrayList<>();
+        /** single code mappings. */
+        private final Map<Integer, String> chars = new HashMap<>();
+        /** range mappings, searched after the single codes. */
+        private final List<Range> ranges = new ArrayList<>();
+
+        /** a bfrange: codes from low to high map to consecutive text, or to a list of texts. */
+        private static final class Range {
+            final int low;
+            final int high;
+            final String first;
+            final List<String> texts;
+
+            Range(int low, int high, String first, List<String> texts) {
+                this.low = low;
+                this.high = high;
+                this.first = first;
+                this.texts = texts;
+            }
+
+            String get(int code) {
+                final int offset = code - low;
+                if (texts != null) return offset < texts.size() ? texts.get(offset) : null;
+                if (first.isEmpty()) return null;
+                // the last code unit counts up through the range.
+                return first.substring(0, first.length() - 1) + (char) (first.charAt(first.length() - 1) + offset);
+            }
+        }
+
+        static ToUnicode parse(byte[] cmap) {
+            final ToUnicode toUnicode = new ToUnicode();
+            final Tokenizer tokens = new Tokenizer(cmap);
+            Object token;
+            while ((token = tokens.next()) != null) {
+                if ("begincodespacerange".equals(token)) {
+                    Object low;
+                    while ((low = tokens.next()) instanceof byte[]) {
+                        Object high = tokens.next();
+                        if (!(high instanceof byte[])) break;
+                        int length = ((byte[]) low).length;
+                        if (length < 1 || length > 4) continue;
+                        toUnicode.codeLengths.add(length);
+                        toUnicode.codespaces.add(new int[] { length, toCode((byte[]) low), toCode((byte[]) high) });
+                    }
+                } else if ("beginbfchar".equals(token)) {
+                    Object code;
+                    while ((code = tokens.next()) instanceof byte[]) {
+                        Object text = tokens.next();
+                        if (!(text instanceof byte[])) break;
+                        toUnicode.addLength((byte[]) code);
+                        toUnicode.chars.put(toCode((byte[]) code), toText((byte[]) text));
+                    }
+                } else if ("beginbfrange".equals(token)) {
+                    Object low;
+                    while ((low = tokens.next()) instanceof byte[]) {
+                        Object high = tokens.next();
+                        Object text = tokens.next();
+                        if (!(high instanceof byte[])) break;
+                        int lowCode = toCode((byte[]) low);
+                        int highCode = toCode((byte[]) high);
+                        if (highCode < lowCode || highCode - lowCode >= MAX_RANGE_CODES) continue;
+                        toUnicode.addLength((byte[]) low);
+                        if (text instanceof byte[]) {
+                            toUnicode.ranges.add(new Range(lowCode, highCode, toText((byte[]) text), null));
+                        } else if (text instanceof List) {
+                            List<String> texts = new ArrayList<>();
+                            for (Object element : (List<?>) text) {
+                                texts.add(element instanceof byte[] ? toText((byte[]) element) : null);
+                            }
+                            toUnicode.ranges.add(new Range(lowCode, highCode, null, texts));
+                        }
+                    }
+                }
+            }
+            return toUnicode;
+        }
+
+        /** a CMap without codespace ranges is given code lengths by the codes it maps. */
+        private void addLength(byte[] code) {
+            if (codespaces.isEmpty() && code.length >= 1 && code.length <= 4) codeLengths.add(code.length);
+        }
+
+        /**
+         * @return the length of the code starting at a position in a string: the shortest length with a codespace
+         * range holding the code, or the shortest length if none do.
+         */
+        int codeLength(byte[] bytes, int pos) {
+            if (codeLengths.isEmpty()) return 1;
+            for (int length : codeLengths) {
+                if (pos + length > bytes.length) break;
+                int code = 0;
+                for (int i = 0; i < length; i++) code = (code << 8) | (bytes[pos + i] & 0xff);
+                if (codespaces.isEmpty() && (chars.containsKey(code) || inRange(code))) return length;
+                for (int[] codespace : codespaces) {
+                    if (codespace[0] == length && code >= codespace[1] && code <= codespace[2]) return length;
+                }
+            }
+            return codeLengths.first();
+        }
+
+        private boolean inRange(int code) {
+            for (Range range : ranges) {
+                if (code >= range.low && code <= range.high) return true;
+            }
+            return false;
+        }
+
+        String get(int code) {
+            String text = chars.get(code);
+            if (text != null) return text;
+            for (Range range : ranges) {
+                if (code >= range.low && code <= range.high) return range.get(code);
+            }
+            return null;
+        }
+
+        private static int toCode(byte[] bytes) {
+            int code = 0;
+            for (int i = Math.max(0, bytes.length - 4); i < bytes.length; i++) code = (code << 8) | (bytes[i] & 0xff);
+            return code;
+        }
+
+        private static String toText(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_16BE);
+        }
+    }
+
+    /**
+     * Splits a CMap into hex strings (as bytes), arrays (as lists) and other words (as strings).
+     */
+    private static final class Tokenizer {
+        private final byte[] data;
+        private int pos;
+
+        Tokenizer(byte[] data) {
+            this.data = data;
+        }
+
+        /** @return the next token, or null at the end of the data. */
+        Object next() {
+            while (pos < data.length) {
+                int c = data[pos] & 0xff;
+                if (c == '%') {
+                    while (pos < data.length && data[pos] != '\n' && data[pos] != '\r') pos++;
+                } else if (c == '<' && pos + 1 < data.length && data[pos + 1] == '<') {
+                    pos += 2;
+                    return "<<";
+                } else if (c == '<') {
+                    return readHex();
+                } else if (c == '[') {
+                    pos++;
+                    List<Object> elements = new ArrayList<>();
+                    Object element;
+                    while ((element = next()) != null && !"]".equals(element)) {
+                        elements.add(element);
+                    }
+                    return elements;
+                } else if (c == ']') {
+                    pos++;
+                    return "]";
+                } else if (c == '(') {
+                    // literal strings only name things in a CMap, skip them.
+                    int nesting = 0;
+                    do {
+                        if (data[pos] == '\\') pos++;
+                        else if (data[pos] == '(') nesting++;
+                        else if (data[pos] == ')') nesting--;
+                        pos++;
+                    } while (pos < data.length && nesting > 0);
+                    return "()";
+                } else if (c <= ' ' || c == '>' || c == ')' || c == '{' || c == '}') {
+                    pos++;
+                } else {
+                    int start = pos;
+                    while (pos == start || pos < data.length && (data[pos] & 0xff) > ' ' && "<>[]()/%{}".indexOf(data[pos]) < 0) {
+                        pos++;
+                    }
+                    return new String(data, start, pos - start, StandardCharsets.ISO_8859_1);
+                }
+            }
+            return null;
+        }
+
+        private byte[] readHex() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int high = -1;
+            pos++;
+            while (pos < data.length) {
+                int c = data[pos++] & 0xff;
+                if (c == '>') break;
+                int digit = Character.digit(c, 16);
+                if (digit < 0) continue;
+                if (high < 0) {
+                    high = digit;
+                } else {
+                    out.write(high * 16 + digit);
+                    high = -1;
+                }
+            }
+            if (high >= 0) out.write(high * 16);
+            return out.toByteArray();
+        }
+    }
+}
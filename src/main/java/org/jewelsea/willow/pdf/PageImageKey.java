@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Objects;
+
+/**
+ * Identifies a rendered image of a pdf page: the page, the size of the image and the part of the page shown.
+ */
+public final class PageImageKey {
+    private final int pageNumber;
+    private final int width;
+    private final int height;
+    private final Rectangle2D clip;
+
+    /**
+     * @param pageNumber the page number, starting at 1.
+     * @param width      width of the image in pixels.
+     * @param height     height of the image in pixels.
+     * @param clip       the part of the page shown in page space, or null for the whole page.
+     */
+    public PageImageKey(int pageNumber, int width, int height, Rectangle2D clip) {
+        this.pageNumber = pageNumber;
+        this.width = width;
+        this.height = height;
+        // copy the clip, so that it can't be changed out from under the key.
+        this.clip = clip != null ? new Rectangle2D.Double(clip.getX(), clip.getY(), clip.getWidth(), clip.getHeight()) : null;
+    }
+
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return the part of the page shown in page space, or null for the whole page. */
+    public Rectangle2D getClip() {
+        return clip != null ? (Rectangle2D) clip.clone() : null;
+    }
+
+    /** @return a key for the same page, size and clip on another page. */
+    public PageImageKey forPage(int otherPageNumber) {
+        return new PageImageKey(otherPageNumber, width, height, clip);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PageImageKey)) return false;
+        PageImageKey that = (PageImageKey) o;
+        return pageNumber == that.pageNumber
+                && width == that.width
+                && height == that.height
+                && Objects.equals(clip, that.clip);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pageNumber, width, height, clip);
+    }
+
+    @Override
+    public String toString() {
+        return "PageImageKey[page=" + pageNumber + ", " + width + "x" + height + ", clip=" + clip + "]";
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFFile;
+import com.sun.pdfview.PDFPage;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the pages of a pdf document to images in the background.
+ *
+ * Rendered images are kept in a memory budgeted cache, so paging back and forth through a document doesn't render the
+ * same pages over and over.  Around the page being viewed, a window of pages is rendered ahead of time: more pages in
+ * the direction the reader is moving than behind.
+ *
+ * Requests for pages which are being viewed always run before prefetches.  Pages are rendered in parallel by a pool
+ * of workers.  A pdf-renderer document is not safe to use from several threads at once, so each worker parses the
+ * document with its own handle to the document data, and rendering never contends with the document used by the ui.
+ */
+public class PageRenderer {
+    /** prefix used for the names of rendering threads. */
+    public static final String RENDER_THREAD_PREFIX = "willow-pdf-renderer-";
+    /** default number of pages prefetched in the direction of navigation. */
+    public static final int DEFAULT_PAGES_AHEAD = 3;
+    /** default number of pages prefetched against the direction of navigation. */
+    public static final int DEFAULT_PAGES_BEHIND = 1;
+
+    /** priority of a request for a page being viewed, lower values run first. */
+    public static final int VISIBLE_PRIORITY = 0;
+    /** default number of pages rendered at once, one core is left for the ui. */
+    public static final int DEFAULT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private final ByteBuffer data;
+    private final int numPages;
+    private final RenderedPageCache cache;
+    private final ThreadPoolExecutor executor;
+
+    /** the document used for rendering by each worker. */
+    private final ThreadLocal<PDFFile> workerDocument = new ThreadLocal<>();
+
+    /** renders in progress or waiting to run. */
+    private final Map<PageImageKey, RenderTask> inFlight = new ConcurrentHashMap<>();
+    /** the prefetches for the current prefetch window. */
+    private final Set<RenderTask> prefetches = new HashSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private int pagesAhead = DEFAULT_PAGES_AHEAD;
+    private int pagesBehind = DEFAULT_PAGES_BEHIND;
+    private int lastViewedPage = 0;
+    private boolean movingForward = true;
+
+    /**
+     * @param data     the pdf document data, the renderer uses its own view of the data.
+     * @param numPages the number of pages in the document.
+     * @param cache    cache for the rendered page images.
+     */
+    public PageRenderer(ByteBuffer data, int numPages, RenderedPageCache cache) {
+        this(data, numPages, cache, DEFAULT_WORKERS);
+    }
+
+    /**
+     * @param data     the pdf document data, the renderer uses its own view of the data.
+     * @param numPages the number of pages in the document.
+     * @param cache    cache for the rendered page images.
+     * @param workers  the number of pages to render at once.
+     */
+    public PageRenderer(ByteBuffer data, int numPages, RenderedPageCache cache, int workers) {
+        this.data = data.duplicate();
+        this.numPages = numPages;
+        this.cache = cache;
+
+        // the threads are daemon threads, so that the application can exit while pages are rendering.
+        executor = new ThreadPoolExecutor(
+                workers, workers, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, RENDER_THREAD_PREFIX + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    /**
+     * Set how many pages around the viewed page are rendered ahead of time.
+     *
+     * @param ahead  pages prefetched in the direction of navigation.
+     * @param behind pages prefetched against the direction of navigation.
+     */
+    public synchronized void setPrefetchWindow(int ahead, int behind) {
+        this.pagesAhead = Math.max(0, ahead);
+        this.pagesBehind = Math.max(0, behind);
+    }
+
+    /** @return the number of pages in the document. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Render a page which is being viewed, and prefetch the pages around it at the same size.
+     *
+     * @param key the page and size to render.
+     * @return the future rendered image.
+     */
+    public CompletableFuture<BufferedImage> renderViewed(PageImageKey key) {
+        CompletableFuture<BufferedImage> result = render(key, VISIBLE_PRIORITY);
+        prefetchAround(key);
+        return result;
+    }
+
+    /**
+     * Render a page image.
+     *
+     * @param key      the page and size to render.
+     * @param priority the priority of the render, lower values run first.
+     * @return the future rendered image.
+     */
+    public CompletableFuture<BufferedImage> render(PageImageKey key, int priority) {
+        return render(key, priority, cache);
+    }
+
+    /**
+     * Render a page image, keeping the image in a cache of the caller's choosing, e.g. for thumbnails which
+     * shouldn't push page images out of the page cache.
+     *
+     * @param key         the page and size to render.
+     * @param priority    the priority of the render, lower values run first.
+     * @param targetCache the cache to keep the image in.
+     * @return the future rendered image.
+     */
+    public CompletableFuture<BufferedImage> render(PageImageKey key, int priority, RenderedPageCache targetCache) {
+        BufferedImage cached = targetCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // join a render of the same image which is already on its way, rather than rendering it twice.
+        RenderTask task = inFlight.compute(key, (k, existing) ->
+                existing != null && !existing.result.isDone() ? existing : new RenderTask(k, priority, targetCache)
+        );
+        task.raisePriority(priority);
+        task.submit();
+
+        return task.result;
+    }
+
+    /**
+     * Cancel a render which has not started yet, e.g. for a tile which has been scrolled out of view.
+     * Renders which have started are left to finish, their images are cached.
+     *
+     * @param key the image which is no longer wanted.
+     */
+    public void cancelIfWaiting(PageImageKey key) {
+        RenderTask task = inFlight.get(key);
+        if (task != null) task.cancelIfWaiting();
+    }
+
+    /**
+     * Replace the prefetch window with one around the viewed page.
+     */
+    private void prefetchAround(PageImageKey viewed) {
+        final int page = viewed.getPageNumber();
+        final List<Integer> window = new ArrayList<>();
+        synchronized (this) {
+            if (page != lastViewedPage) {
+                movingForward = page > lastViewedPage;
+                lastViewedPage = page;
+            }
+            int step = movingForward ? 1 : -1;
+            // interleave the pages, nearest first, favouring the direction of travel.
+            for (int distance = 1; distance <= Math.max(pagesAhead, pagesBehind); distance++) {
+                if (distance <= pagesAhead) window.add(page + step * distance);
+                if (distance <= pagesBehind) window.add(page - step * distance);
+            }
+        }
+        window.removeIf(pageNumber -> pageNumber < 1 || pageNumber > numPages);
+
+        final Set<RenderTask> newPrefetches = new HashSet<>();
+        for (int i = 0; i < window.size(); i++) {
+            PageImageKey key = viewed.forPage(window.get(i));
+            if (cache.get(key) == null) {
+                render(key, VISIBLE_PRIORITY + 1 + i, cache);
+                RenderTask task = inFlight.get(key);
+                if (task != null) newPrefetches.add(task);
+            }
+        }
+
+        // pages which dropped out of the window are no longer worth rendering.
+        synchronized (this) {
+            for (RenderTask old : prefetches) {
+                if (!newPrefetches.contains(old) && old.priority > VISIBLE_PRIORITY) {
+                    old.cancelIfWaiting();
+                }
+            }
+            prefetches.clear();
+            prefetches.addAll(newPrefetches);
+        }
+    }
+
+    /**
+     * Stop rendering and discard the rendered images.
+     */
+    public void close() {
+        executor.shutdownNow();
+        for (RenderTask task : inFlight.values()) {
+            task.result.cancel(false);
+        }
+        inFlight.clear();
+        cache.clear();
+    }
+
+    /**
+     * Render a page image on a worker thread.
+     */
+    private BufferedImage renderPage(PageImageKey key) throws IOException {
+        PDFFile document = workerDocument.get();
+        if (document == null) {
+            document = new PDFFile(data.duplicate());
+            workerDocument.set(document);
+        }
+
+        PDFPage page = document.getPage(key.getPageNumber(), true);
+        if (page == null) {
+            throw new IOException("No page " + key.getPageNumber() + " in document.");
+        }
+        Image image = page.getImage(key.getWidth(), key.getHeight(), key.getClip(), null, true, true);
+
+        return toBufferedImage(image, key);
+    }
+
+    private static BufferedImage toBufferedImage(Image image, PageImageKey key) {
+        if (image instanceof BufferedImage) return (BufferedImage) image;
+
+        BufferedImage buffered = new BufferedImage(key.getWidth(), key.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = buffered.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+
+        return buffered;
+    }
+
+    /** the life of a render task: it is queued at most once and run at most once. */
+    private enum State { NEW, QUEUED, RUNNING, DONE }
+
+    /** a queued page render, ordered by priority and then by age. */
+    private class RenderTask implements Runnable, Comparable<RenderTask> {
+        final PageImageKey key;
+        final RenderedPageCache targetCache;
+        final CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        volatile int priority;
+        final long order;
+        /** where the task is in its life, guarded by the task's lock. */
+        State state = State.NEW;
+
+        RenderTask(PageImageKey key, int priority, RenderedPageCache targetCache) {
+            this.key = key;
+            this.targetCache = targetCache;
+            this.priority = priority;
+            this.order = sequence.incrementAndGet();
+        }
+
+        /** queue the task if it hasn't been queued yet. */
+        synchronized void submit() {
+            if (state != State.NEW || result.isDone()) return;
+            state = State.QUEUED;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the renderer has been closed.
+                state = State.DONE;
+                result.cancel(false);
+            }
+        }
+
+        /**
+         * Raise the priority of a task waiting to run, e.g. when a prefetched page is now being viewed.
+         */
+        synchronized void raisePriority(int newPriority) {
+            if (newPriority >= priority) return;
+            priority = newPriority;
+            // the queue only orders tasks as they are added, so re-queue the task.
+            if (state == State.QUEUED && executor.getQueue().remove(this)) {
+                state = State.NEW;
+                submit();
+            }
+        }
+
+        /** cancel the task if it hasn't started running. */
+        synchronized void cancelIfWaiting() {
+            if (state == State.QUEUED && executor.getQueue().remove(this)) {
+                state = State.DONE;
+                result.cancel(false);
+                inFlight.remove(key, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                // a coalesced render() may find the task again while it runs, it must not be queued a second time.
+                if (state != State.QUEUED || result.isDone()) return;
+                state = State.RUNNING;
+            }
+
+            try {
+                BufferedImage cached = targetCache.get(key);
+                BufferedImage image = cached != null ? cached : renderPage(key);
+                targetCache.put(key, image);
+                result.complete(image);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    state = State.DONE;
+                }
+                inFlight.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(RenderTask other) {
+            int byPriority = Integer.compare(priority, other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+    }
+}
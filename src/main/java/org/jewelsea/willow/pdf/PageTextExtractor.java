@@ -0,0 +1,478 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFFile;
+import com.sun.pdfview.PDFObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pulls the text out of the pages of a pdf document.
+ *
+ * pdf-renderer has no text api, so the page content streams are tokenized directly and the strings shown by the text
+ * operators (Tj, TJ, ' and ") are collected in content order.  Text positioning operators become spaces or line breaks.
+ * Strings are decoded through the font selected for them (see FontDecoder): its ToUnicode CMap if it has one,
+ * otherwise its encoding.  Text in a font which can't be decoded, e.g. an Identity-H font without a ToUnicode CMap,
+ * is left out rather than indexed as garbage.
+ *
+ * Like the rest of pdf-renderer, an extractor is not thread safe.
+ */
+class PageTextExtractor {
+    /** max depth of nested page tree nodes and form xobjects we follow, guards against malformed documents. */
+    private static final int MAX_DEPTH = 32;
+    /** a TJ adjustment this far left (in thousandths of a text space unit) is taken to be a word space. */
+    private static final float WORD_SPACE_ADJUSTMENT = -200;
+
+    private final PDFFile document;
+    private List<PDFObject> pages;
+    /** decoders for the fonts seen so far, fonts are usually shared by many pages. */
+    private final Map<PDFObject, FontDecoder> fonts = new HashMap<>();
+
+    PageTextExtractor(PDFFile document) {
+        this.document = document;
+    }
+
+    /**
+     * @param pageNumber the page, starting at 1.
+     * @return the text of the page, empty if the page has none.
+     * @throws IOException if the page can't be read.
+     */
+    String extractText(int pageNumber) throws IOException {
+        List<PDFObject> allPages = getPages();
+        if (pageNumber < 1 || pageNumber > allPages.size()) {
+            throw new IOException("No page " + pageNumber + " in document.");
+        }
+
+        PDFObject page = allPages.get(pageNumber - 1);
+        StringBuilder text = new StringBuilder();
+        PDFObject contents = page.getDictRef("Contents");
+        if (contents != null) {
+            // a page's content may be split over several streams, which are read as one.
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            if (contents.getType() == PDFObject.ARRAY) {
+                for (PDFObject part : contents.getArray()) {
+                    byte[] bytes = part.dereference().getStream();
+                    if (bytes != null) {
+                        content.write(bytes, 0, bytes.length);
+                        content.write(' ');
+                    }
+                }
+            } else {
+                byte[] bytes = contents.getStream();
+                if (bytes != null) content.write(bytes, 0, bytes.length);
+            }
+            new ContentScanner(
+                    content.toByteArray(), findResources(page), text, new HashSet<>(), fonts, FontDecoder.DEFAULT, 0
+            ).scan();
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * @return the page dictionaries in page order, found by walking the page tree.
+     */
+    private List<PDFObject> getPages() throws IOException {
+        if (pages == null) {
+            List<PDFObject> found = new ArrayList<>();
+            PDFObject pageTree = document.getRoot().getDictRef("Pages");
+            if (pageTree != null) {
+                collectPages(pageTree, found, 0);
+            }
+            pages = found;
+        }
+        return pages;
+    }
+
+    private void collectPages(PDFObject node, List<PDFObject> found, int depth) throws IOException {
+        if (depth > MAX_DEPTH) return;
+
+        PDFObject kids = node.getDictRef("Kids");
+        if (kids == null) {
+            found.add(node);
+        } else {
+            for (PDFObject kid : kids.getArray()) {
+                collectPages(kid.dereference(), found, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the resources of a page, which may be inherited from the page tree.
+     */
+    private static PDFObject findResources(PDFObject page) throws IOException {
+        PDFObject node = page;
+        for (int depth = 0; node != null && depth < MAX_DEPTH; depth++) {
+            PDFObject resources = node.getDictRef("Resources");
+            if (resources != null) return resources;
+            node = node.getDictRef("Parent");
+        }
+        return null;
+    }
+
+    /**
+     * Tokenizes a content stream, collecting the text it shows.
+     */
+    private static class ContentScanner {
+        private final byte[] content;
+        private final PDFObject resources;
+        private final StringBuilder text;
+        /** forms already scanned, a form shown twice only adds its text once. */
+        private final Set<PDFObject> visitedForms;
+        private final Map<PDFObject, FontDecoder> fonts;
+        private final int depth;
+        /** the decoder for the current font, and those of the graphics states saved by q. */
+        private FontDecoder font;
+        private final Deque<FontDecoder> savedFonts = new ArrayDeque<>();
+
+        private final List<Object> operands = new ArrayList<>();
+        private List<Object> array;
+        private int pos;
+
+        ContentScanner(byte[] content, PDFObject resources, StringBuilder text, Set<PDFObject> visitedForms,
+                       Map<PDFObject, FontDecoder> fonts, FontDecoder font, int depth) {
+            this.content = content;
+            this.resources = resources;
+            this.text = text;
+            this.visitedForms = visitedForms;
+            this.fonts = fonts;
+            this.font = font;
+            this.depth = depth;
+        }
+
+        void scan() throws IOException {
+            while (pos < content.length) {
+                int c = content[pos] & 0xff;
+                if (PDFFile.isWhiteSpace(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    skipComment();
+                } else if (c == '(') {
+                    addOperand(readLiteralString());
+                } else if (c == '<') {
+                    if (pos + 1 < content.length && content[pos + 1] == '<') {
+                        // dictionaries only appear as operands of operators we don't care about.
+                        pos += 2;
+                    } else {
+                        addOperand(readHexString());
+                    }
+                } else if (c == '>') {
+                    pos++;
+                } else if (c == '[') {
+                    pos++;
+                    array = new ArrayList<>();
+                } else if (c == ']') {
+                    pos++;
+                    if (array != null) {
+                        List<Object> finished = array;
+                        array = null;
+                        operands.add(finished);
+                    }
+                } else if (c == '/') {
+                    pos++;
+                    addOperand(new Name(readRegular()));
+                } else if (PDFFile.isDelimiter(c)) {
+                    pos++;
+                } else {
+                    String token = readRegular();
+                    if (isNumber(token)) {
+                        addOperand(Float.parseFloat(token));
+                    } else if (array == null) {
+                        operator(token);
+                        operands.clear();
+                    }
+                }
+            }
+        }
+
+        private void addOperand(Object operand) {
+            if (array != null) {
+                array.add(operand);
+            } else {
+                operands.add(operand);
+            }
+        }
+
+        private void operator(String operator) throws IOException {
+            switch (operator) {
+                case "Tj":
+                    showString(lastOperand(byte[].class));
+                    break;
+                case "'":
+                case "\"":
+                    newLine();
+                    showString(lastOperand(byte[].class));
+                    break;
+                case "TJ":
+                    List<?> elements = lastOperand(List.class);
+                    if (elements != null) {
+                        for (Object element : elements) {
+                            if (element instanceof byte[]) {
+                                showString((byte[]) element);
+                            } else if (element instanceof Float && (Float) element <= WORD_SPACE_ADJUSTMENT) {
+                                space();
+                            }
+                        }
+                    }
+                    break;
+                case "T*":
+                    newLine();
+                    break;
+                case "Td":
+                case "TD":
+                    // a vertical move starts a new line, a horizontal one is usually a gap between words.
+                    Float ty = lastOperand(Float.class);
+                    if (ty != null && ty != 0) newLine(); else space();
+                    break;
+                case "Tm":
+                case "ET":
+                    space();
+                    break;
+                case "BI":
+                    skipInlineImage();
+                    break;
+                case "Do":
+                    showForm(lastOperand(Name.class));
+                    break;
+                case "Tf":
+                    selectFont(operands.size() >= 2 && operands.get(operands.size() - 2) instanceof Name
+                            ? (Name) operands.get(operands.size() - 2) : null);
+                    break;
+                case "q":
+                    savedFonts.push(font);
+                    break;
+                case "Q":
+                    if (!savedFonts.isEmpty()) font = savedFonts.pop();
+                    break;
+                default:
+                    // not a text operator - no action required.
+                    break;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T lastOperand(Class<T> type) {
+            if (operands.isEmpty()) return null;
+            Object operand = operands.get(operands.size() - 1);
+            return type.isInstance(operand) ? (T) operand : null;
+        }
+
+        private void showString(byte[] bytes) {
+            if (bytes == null) return;
+            // a string in a font which can't be decoded is left out.
+            String decoded = font.decode(bytes);
+            if (decoded != null) text.append(decoded);
+        }
+
+        /**
+         * Make a font named in the resources the current font, a font which can't be found or read can't be decoded.
+         */
+        private void selectFont(Name name) throws IOException {
+            PDFObject fontResources = resources != null ? resources.getDictRef("Font") : null;
+            PDFObject fontDict = name != null && fontResources != null ? fontResources.getDictRef(name.value) : null;
+            if (fontDict == null) {
+                font = FontDecoder.UNDECODABLE;
+                return;
+            }
+            FontDecoder decoder = fonts.get(fontDict);
+            if (decoder == null) {
+                try {
+                    decoder = FontDecoder.forFont(fontDict);
+                } catch (IOException | RuntimeException e) {
+                    decoder = FontDecoder.UNDECODABLE;
+                }
+                fonts.put(fontDict, decoder);
+            }
+            font = decoder;
+        }
+
+        private void space() {
+            if (text.length() > 0 && !Character.isWhitespace(text.charAt(text.length() - 1))) {
+                text.append(' ');
+            }
+        }
+
+        private void newLine() {
+            if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+                text.append('\n');
+            }
+        }
+
+        /**
+         * Collect the text of a form xobject shown by the Do operator, images are ignored.
+         */
+        private void showForm(Name name) throws IOException {
+            if (name == null || resources == null || depth >= MAX_DEPTH) return;
+
+            PDFObject xobjects = resources.getDictRef("XObject");
+            PDFObject form = xobjects != null ? xobjects.getDictRef(name.value) : null;
+            if (form == null || !visitedForms.add(form)) return;
+
+            PDFObject subtype = form.getDictRef("Subtype");
+            if (subtype == null || !"Form".equals(subtype.getStringValue())) return;
+
+            byte[] formContent = form.getStream();
+            if (formContent != null) {
+                PDFObject formResources = form.getDictRef("Resources");
+                new ContentScanner(
+                        formContent, formResources != null ? formResources : resources, text, visitedForms, fonts, font,
+                        depth + 1
+                ).scan();
+                space();
+            }
+        }
+
+        /**
+         * Skip the binary data of an inline image, which runs from the ID operator to the EI operator.
+         */
+        private void skipInlineImage() {
+            while (pos + 1 < content.length && !(content[pos] == 'I' && content[pos + 1] == 'D')) {
+                pos++;
+            }
+            pos += 2;
+            while (pos + 2 < content.length) {
+                if (PDFFile.isWhiteSpace(content[pos] & 0xff) && content[pos + 1] == 'E' && content[pos + 2] == 'I'
+                        && (pos + 3 == content.length || PDFFile.isWhiteSpace(content[pos + 3] & 0xff))) {
+                    pos += 3;
+                    return;
+                }
+                pos++;
+            }
+            pos = content.length;
+        }
+
+        private void skipComment() {
+            while (pos < content.length && content[pos] != '\n' && content[pos] != '\r') {
+                pos++;
+            }
+        }
+
+        private String readRegular() {
+            int start = pos;
+            while (pos < content.length && PDFFile.isRegularCharacter(content[pos] & 0xff)) {
+                pos++;
+            }
+            return new String(content, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+
+        private byte[] readLiteralString() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int nesting = 1;
+            pos++;
+            while (pos < content.length) {
+                int c = content[pos++] & 0xff;
+                if (c == '\\' && pos < content.length) {
+                    int escaped = content[pos++] & 0xff;
+                    switch (escaped) {
+                        case 'n': out.write('\n'); break;
+                        case 'r': out.write('\r'); break;
+                        case 't': out.write('\t'); break;
+                        case 'b': out.write('\b'); break;
+                        case 'f': out.write('\f'); break;
+                        case '\r':
+                            // a line continuation.
+                            if (pos < content.length && content[pos] == '\n') pos++;
+                            break;
+                        case '\n':
+                            break;
+                        default:
+                            if (escaped >= '0' && escaped <= '7') {
+                                int value = escaped - '0';
+                                for (int i = 0; i < 2 && pos < content.length
+                                        && content[pos] >= '0' && content[pos] <= '7'; i++) {
+                                    value = value * 8 + (content[pos++] - '0');
+                                }
+                                out.write(value);
+                            } else {
+                                out.write(escaped);
+                            }
+                    }
+                } else if (c == '(') {
+                    nesting++;
+                    out.write(c);
+                } else if (c == ')') {
+                    if (--nesting == 0) break;
+                    out.write(c);
+                } else {
+                    out.write(c);
+                }
+            }
+            return out.toByteArray();
+        }
+
+        private byte[] readHexString() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int high = -1;
+            pos++;
+            while (pos < content.length) {
+                int c = content[pos++] & 0xff;
+                if (c == '>') break;
+                int digit = Character.digit(c, 16);
+                if (digit < 0) continue;
+                if (high < 0) {
+                    high = digit;
+                } else {
+                    out.write(high * 16 + digit);
+                    high = -1;
+                }
+            }
+            // an odd final digit is followed by an implied 0.
+            if (high >= 0) out.write(high * 16);
+            return out.toByteArray();
+        }
+
+        private static boolean isNumber(String token) {
+            if (token.isEmpty()) return false;
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                if (!(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '+') return false;
+            }
+            try {
+                Float.parseFloat(token);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+    /** a name operand, e.g. /Im1 */
+    private static class Name {
+        final String value;
+
+        Name(String value) {
+            this.value = value;
+        }
+    }
+}
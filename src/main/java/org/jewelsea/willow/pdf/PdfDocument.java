@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFFile;
+import org.jewelsea.willow.util.FetchExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A pdf document fetched from a location.
+ *
+ * The document is streamed into a temporary file which is memory mapped, so the document data never sits in the heap.
+ * The temporary file is deleted when the document is closed.
+ *
+ * The validators the server sent with the document (ETag and Last-Modified) are kept, so that a copy of the document
+ * can be reused until the server says it has changed.
+ */
+public class PdfDocument {
+    /** prefix of the temporary files holding fetched documents. */
+    private static final String TEMP_FILE_PREFIX = "willow-pdf-";
+    /** size of the buffer used to stream fetched documents to disk. */
+    private static final int FETCH_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Receives progress updates while a pdf document is fetched.
+     */
+    public interface FetchProgressListener {
+        /**
+         * Called periodically as the document is fetched, on the fetching thread.
+         *
+         * @param bytesRead  the number of bytes fetched so far.
+         * @param totalBytes the length of the document, or -1 if the server didn't say.
+         */
+        void progress(long bytesRead, long totalBytes);
+    }
+
+    private final String location;
+    private final File file;
+    private final ByteBuffer data;
+    private final PDFFile pdfFile;
+    private final String etag;
+    private final long lastModified;
+    /** when the server last said this copy is current, it was fetched or revalidated. */
+    private volatile long validatedAt = System.currentTimeMillis();
+    private PdfTextIndex textIndex;
+
+    private PdfDocument(String location, File file, ByteBuffer data, PDFFile pdfFile, String etag, long lastModified) {
+        this.location = location;
+        this.file = file;
+        this.data = data;
+        this.pdfFile = pdfFile;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Fetch and parse a pdf document, blocking until it is ready.
+     *
+     * @param url      the location of the document.
+     * @param listener notified of the fetch progress, may be null.
+     * @return the document.
+     * @throws IOException if the document can't be fetched or isn't a pdf document.
+     */
+    public static PdfDocument fetch(URL url, FetchProgressListener listener) throws IOException {
+        return fetchIfModified(url, null, listener);
+    }
+
+    /**
+     * Fetch and parse a pdf document unless the server says a copy we already have is still current.
+     *
+     * @param url      the location of the document.
+     * @param copy     a copy of the document we already have, may be null.
+     * @param listener notified of the fetch progress, may be null.
+     * @return the new document, or null if the copy is still current.
+     * @throws IOException if the document can't be fetched, the server doesn't send it, or it isn't a pdf document.
+     */
+    public static PdfDocument fetchIfModified(URL url, PdfDocument copy, FetchProgressListener listener) throws IOException {
+        URLConnection connection = FetchExecutor.getInstance().openConnection(url);
+
+        // ask the server to only send the document if it has changed since our copy was fetched.
+        if (copy != null && connection instanceof HttpURLConnection) {
+            if (copy.etag != null) {
+                connection.setRequestProperty("If-None-Match", copy.etag);
+            }
+            if (copy.lastModified > 0) {
+                connection.setIfModifiedSince(copy.lastModified);
+            }
+            if ((copy.etag != null || copy.lastModified > 0)
+                    && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+        }
+
+        File file = fetchToTempFile(connection, listener);
+        try {
+            ByteBuffer data = mapFile(file);
+            PDFFile pdfFile = new PDFFile(data);
+            return new PdfDocument(
+                    url.toString(), file, data, pdfFile,
+                    connection.getHeaderField("ETag"), connection.getLastModified()
+            );
+        } catch (IOException | RuntimeException e) {
+            deleteTempFile(file);
+            throw e;
+        }
+    }
+
+    /** @return true if the server sent an ETag or Last-Modified, so the document can be revalidated cheaply. */
+    public boolean hasValidators() {
+        return etag != null || lastModified > 0;
+    }
+
+    /** @return when the server last said this copy is current, in milliseconds since the epoch. */
+    public long getValidatedAt() {
+        return validatedAt;
+    }
+
+    /** Record that the server has just said this copy is current. */
+    void revalidated() {
+        validatedAt = System.currentTimeMillis();
+    }
+
+    /** @return the location the document was fetched from. */
+    public String getLocation() {
+        return location;
+    }
+
+    /** @return the name of the document, e.g. http://x.com/docs/manual.pdf => manual.pdf */
+    public String getName() {
+        String name = location;
+        int queryIdx = name.indexOf('?');
+        if (queryIdx >= 0) name = name.substring(0, queryIdx);
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return the parsed document; pdf-renderer documents are not thread safe, so this should only be used by the ui.
+     */
+    public PDFFile getPDFFile() {
+        return pdfFile;
+    }
+
+    /** @return the document data, for other threads to parse their own handles to the document. */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    /** @return the size of the document data in bytes. */
+    public long getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * @return the index of the text of the document, shared by everything viewing the document.
+     */
+    public synchronized PdfTextIndex getTextIndex() {
+        if (textIndex == null) {
+            textIndex = new PdfTextIndex(data, pdfFile.getNumPages());
+        }
+        return textIndex;
+    }
+
+    /**
+     * Release the document, deleting its temporary file.
+     */
+    public synchronized void close() {
+        if (textIndex != null) {
+            textIndex.close();
+        }
+        deleteTempFile(file);
+    }
+
+    /**
+     * Stream the content of a connection into a new temporary file.
+     *
+     * @param urlConnection the connection to read.
+     * @param listener      notified of the fetch progress, may be null.
+     * @return the temporary file.
+     * @throws IOException if the content can't be read, or the server doesn't send the document.
+     */
+    private static File fetchToTempFile(URLConnection urlConnection, FetchProgressListener listener) throws IOException {
+        final URL url = urlConnection.getURL();
+
+        // anything but the document itself, e.g. a not found or server error page, isn't worth keeping.
+        if (urlConnection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) urlConnection;
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                String message = "Server responded " + http.getResponseCode() + " " + http.getResponseMessage();
+                http.disconnect();
+                throw new IOException(message);
+            }
+        }
+        long contentLength = urlConnection.getContentLengthLong();
+
+        File file = File.createTempFile(TEMP_FILE_PREFIX, ".pdf");
+        file.deleteOnExit();
+        boolean complete = false;
+        try (ReadableByteChannel in = Channels.newChannel(urlConnection.getInputStream());
+             FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(FETCH_BUFFER_SIZE);
+            long total = 0;
+            long lastReported = 0;
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
+                total += read;
+
+                if (listener != null && total - lastReported >= FETCH_BUFFER_SIZE) {
+                    listener.progress(total, contentLength);
+                    lastReported = total;
+                }
+            }
+            // servers which don't send a length (chunked transfers) are read to the end of the stream.
+            if (contentLength >= 0 && total != contentLength) {
+                throw new IOException("Could not read all of " + url);
+            }
+            if (listener != null) {
+                listener.progress(total, contentLength);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                deleteTempFile(file);
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Memory map a file.  The mapping stays valid after the file is closed.
+     */
+    private static ByteBuffer mapFile(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Delete a temporary file made for a fetched document.  If the file can't be deleted yet (e.g. it is still mapped
+     * on some platforms) it is deleted when the application exits.
+     */
+    private static void deleteTempFile(File file) {
+        if (file != null && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import org.jewelsea.willow.util.FetchExecutor;
+import org.jewelsea.willow.util.LruCache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares fetched pdf documents between the views showing them, so that opening a document again doesn't fetch and
+ * parse it again.
+ *
+ * Documents are reference counted: a document is acquired by each view which shows it and released when the view
+ * closes.  Documents nobody is viewing are kept for reuse, least recently used first out, within a budget for the
+ * size of their data.  A kept document is reused straight away while it is fresh.  After that it is revalidated with
+ * the server (a conditional request on its ETag and Last-Modified), which only transfers the document again if it has
+ * changed; if the server can't be reached the kept document is used anyway.  A document the server sent without
+ * validators can't be revalidated without fetching it all again, so it is reused for as long as it is kept.
+ */
+public class PdfDocumentCache {
+    /** default budget for the data of documents which are not being viewed. */
+    public static final long DEFAULT_IDLE_BUDGET_BYTES = 256L * 1024 * 1024;
+    /** how long a document is reused without asking the server whether it has changed. */
+    private static final long FRESHNESS_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static PdfDocumentCache instance;
+
+    /** the latest copy of the document at each location, whether in use or idle. */
+    private final Map<String, PdfDocument> current = new HashMap<>();
+    /** the number of references to each document in use. */
+    private final Map<PdfDocument, Integer> references = new HashMap<>();
+    /** documents not in use, weighed in KB. */
+    private final LruCache<String, PdfDocument> idle;
+    /** fetches in progress, so that a document opened twice at once is only fetched once. */
+    private final Map<String, Fetch> fetches = new HashMap<>();
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized PdfDocumentCache getInstance() {
+        if (instance == null) instance = new PdfDocumentCache(DEFAULT_IDLE_BUDGET_BYTES);
+        return instance;
+    }
+
+    /**
+     * @param idleBudgetBytes budget for the data of documents which are not being viewed.
+     */
+    public PdfDocumentCache(long idleBudgetBytes) {
+        idle = new LruCache<>(
+                Math.max(1, idleBudgetBytes / 1024),
+                1,
+                (location, document) -> (int) Math.min(Integer.MAX_VALUE, Math.max(1, document.getSize() / 1024)),
+                this::evicted
+        );
+    }
+
+    /**
+     * Acquire the document at a location, fetching or revalidating it in the background unless we have a fresh copy.
+     * The document must be released when it is no longer needed.  Cancelling the returned future gives up on the
+     * document, the fetch stops if nobody else is waiting for it.
+     *
+     * @param location the location of the document.
+     * @param listener notified of the fetch progress, may be null.
+     * @return the future document.
+     */
+    public synchronized CompletableFuture<PdfDocument> acquire(String location, PdfDocument.FetchProgressListener listener) {
+        Fetch fetch = fetches.get(location);
+        if (fetch == null) {
+            final PdfDocument copy = current.get(location);
+            if (copy != null && isFresh(copy)) {
+                retain(copy);
+                return CompletableFuture.completedFuture(copy);
+            }
+            fetch = startFetch(location);
+        }
+        if (listener != null) {
+            fetch.listeners.add(listener);
+        }
+        fetch.waiters++;
+
+        final Fetch waitedFor = fetch;
+        final CompletableFuture<PdfDocument> waiter = new CompletableFuture<>();
+        fetch.result.whenComplete((document, e) -> {
+            if (e != null) {
+                waiter.completeExceptionally(e);
+                return;
+            }
+            retain(document);
+            if (!waiter.complete(document)) {
+                // the waiter gave up while the document was on its way.
+                release(document);
+            }
+        });
+        waiter.whenComplete((document, e) -> {
+            if (waiter.isCancelled()) {
+                cancelled(waitedFor);
+            }
+        });
+
+        return waiter;
+    }
+
+    /**
+     * Release a document acquired from the cache.  The document is kept for reuse while it fits in the idle budget.
+     */
+    public synchronized void release(PdfDocument document) {
+        Integer count = references.get(document);
+        if (count == null) return;
+
+        if (count > 1) {
+            references.put(document, count - 1);
+            return;
+        }
+
+        references.remove(document);
+        if (current.get(document.getLocation()) == document) {
+            idle.put(document.getLocation(), document);
+        } else {
+            // a newer copy of the document has been fetched since this one.
+            document.close();
+        }
+    }
+
+    private synchronized void retain(PdfDocument document) {
+        references.merge(document, 1, Integer::sum);
+        if (idle.get(document.getLocation()) == document) {
+            idle.remove(document.getLocation());
+        }
+    }
+
+    private Fetch startFetch(String location) {
+        final Fetch fetch = new Fetch(location);
+        final PdfDocument copy = current.get(location);
+        // keep our copy while it is revalidated, so that it isn't evicted from under us.
+        if (copy != null) {
+            retain(copy);
+        }
+
+        fetches.put(location, fetch);
+
+        fetch.task = FetchExecutor.getInstance().submit(this, FetchExecutor.hostOf(location), () -> {
+            final PdfDocument fetched;
+            try {
+                fetched = PdfDocument.fetchIfModified(new URL(location), copy, (bytesRead, totalBytes) -> {
+                    for (PdfDocument.FetchProgressListener listener : fetch.listeners) {
+                        listener.progress(bytesRead, totalBytes);
+                    }
+                });
+            } catch (IOException e) {
+                if (copy == null) throw e;
+                // e.g. offline, the copy we have is better than nothing.
+                System.out.println("Unable to revalidate pdf " + location + ", using the copy we have: " + e);
+                return copy;
+            }
+            if (fetched == null) {
+                copy.revalidated();
+                return copy;
+            }
+            install(fetched);
+            return fetched;
+        });
+        fetch.task.whenComplete((document, e) -> {
+            synchronized (PdfDocumentCache.this) {
+                fetches.remove(location, fetch);
+            }
+            if (e != null) {
+                fetch.result.completeExceptionally(e);
+            } else {
+                fetch.result.complete(document);
+            }
+            // the waiters hold their own references now.
+            if (copy != null) {
+                release(copy);
+            }
+        });
+
+        return fetch;
+    }
+
+    /**
+     * @return true if a copy can be reused without asking the server whether it has changed.
+     */
+    private static boolean isFresh(PdfDocument copy) {
+        // without validators the server could only answer by sending the whole document again.
+        return !copy.hasValidators() || System.currentTimeMillis() - copy.getValidatedAt() < FRESHNESS_MILLIS;
+    }
+
+    /**
+     * Make a newly fetched document the current copy for its location, it is idle until it is acquired.
+     */
+    private synchronized void install(PdfDocument document) {
+        final String location = document.getLocation();
+        PdfDocument previous = current.put(location, document);
+        if (previous != null && idle.remove(location) == previous) {
+            previous.close();
+        }
+        idle.put(location, document);
+    }
+
+    private synchronized void cancelled(Fetch fetch) {
+        if (--fetch.waiters == 0 && !fetch.task.isDone()) {
+            fetches.remove(fetch.location, fetch);
+            fetch.task.cancel(true);
+        }
+    }
+
+    private synchronized void evicted(String location, PdfDocument document) {
+        current.remove(location, document);
+        document.close();
+    }
+
+    /**
+     * Discard the documents which are not in use.
+     */
+    public synchronized void clear() {
+        idle.clear();
+        current.values().removeIf(document -> {
+            if (references.containsKey(document)) return false;
+            document.close();
+            return true;
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PdfDocumentCache[inUse=" + references.size() + ", idle=" + idle + "]";
+    }
+
+    /** a fetch of a document and the number of acquirers waiting for it. */
+    private static class Fetch {
+        final String location;
+        final List<PdfDocument.FetchProgressListener> listeners = new CopyOnWriteArrayList<>();
+        final CompletableFuture<PdfDocument> result = new CompletableFuture<>();
+        CompletableFuture<PdfDocument> task;
+        int waiters;
+
+        Fetch(String location) {
+            this.location = location;
+        }
+    }
+}
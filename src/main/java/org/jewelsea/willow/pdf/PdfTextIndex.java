@@ -0,0 +1,328 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFFile;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A searchable index of the text of a pdf document.
+ *
+ * The index is built in the background a page at a time, starting the first time it is asked for, so searches find
+ * hits in the first pages while the rest of the document is still being indexed.  Each word maps to the pages it is on;
+ * the words are kept sorted so that the word being typed can be matched as a prefix.
+ */
+public class PdfTextIndex {
+    /** name of the indexing thread. */
+    public static final String INDEX_THREAD_NAME = "willow-pdf-indexer";
+    /** characters of context either side of a hit shown in its snippet. */
+    private static final int SNIPPET_CONTEXT = 40;
+
+    /**
+     * Receives updates as pages are indexed.
+     */
+    public interface Listener {
+        /**
+         * Called on the indexing thread after each page is indexed.
+         *
+         * @param pagesIndexed the number of pages indexed so far.
+         * @param numPages     the number of pages in the document.
+         */
+        void pagesIndexed(int pagesIndexed, int numPages);
+    }
+
+    /**
+     * A place in the document where the search text was found.
+     */
+    public static class Hit {
+        private final int pageNumber;
+        private final String snippet;
+        private final int snippetMatchStart;
+        private final int snippetMatchEnd;
+
+        Hit(int pageNumber, String snippet, int snippetMatchStart, int snippetMatchEnd) {
+            this.pageNumber = pageNumber;
+            this.snippet = snippet;
+            this.snippetMatchStart = snippetMatchStart;
+            this.snippetMatchEnd = snippetMatchEnd;
+        }
+
+        /** @return the page of the hit, starting at 1. */
+        public int getPageNumber() {
+            return pageNumber;
+        }
+
+        /** @return the text around the hit. */
+        public String getSnippet() {
+            return snippet;
+        }
+
+        /** @return where the hit starts in the snippet. */
+        public int getSnippetMatchStart() {
+            return snippetMatchStart;
+        }
+
+        /** @return where the hit ends in the snippet. */
+        public int getSnippetMatchEnd() {
+            return snippetMatchEnd;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final int numPages;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** the text of each indexed page with whitespace collapsed, and a lower case copy with the same offsets. */
+    private final String[] pageText;
+    private final String[] pageSearchText;
+    /** word => the pages (0 based) it appears on. */
+    private final NavigableMap<String, BitSet> wordPages = new TreeMap<>();
+    private int pagesIndexed;
+
+    private ExecutorService executor;
+    private boolean closed;
+
+    /**
+     * @param data     the pdf document data, the index uses its own view of the data.
+     * @param numPages the number of pages in the document.
+     */
+    public PdfTextIndex(ByteBuffer data, int numPages) {
+        this.data = data.duplicate();
+        this.numPages = numPages;
+        this.pageText = new String[numPages];
+        this.pageSearchText = new String[numPages];
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start indexing the document in the background, if it isn't already being indexed.
+     */
+    public synchronized void start() {
+        if (executor != null || closed) return;
+
+        // the thread is a daemon thread, so that the application can exit while a document is indexed.
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, INDEX_THREAD_NAME);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.execute(this::indexPages);
+    }
+
+    /** @return the number of pages indexed so far. */
+    public synchronized int getPagesIndexed() {
+        return pagesIndexed;
+    }
+
+    /** @return the number of pages in the document. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return true if every page has been indexed. */
+    public synchronized boolean isComplete() {
+        return pagesIndexed == numPages;
+    }
+
+    /**
+     * Find where some text appears at the start of a word, in the pages indexed so far.
+     * Case is ignored, runs of whitespace match any whitespace and the last word may be incomplete.
+     *
+     * @param query   the text to find.
+     * @param maxHits the max number of hits to return.
+     * @return the hits in page order.
+     */
+    public synchronized List<Hit> search(String query, int maxHits) {
+        final String searchText = toSearchText(collapseWhitespace(query).trim());
+        final List<Hit> hits = new ArrayList<>();
+        if (searchText.isEmpty()) return hits;
+
+        // use the index to narrow the search to the pages with all of the words.
+        BitSet candidates = new BitSet();
+        candidates.set(0, pagesIndexed);
+        List<String> words = splitWords(searchText);
+        for (int i = 0; i < words.size() && !candidates.isEmpty(); i++) {
+            String word = words.get(i);
+            if (i < words.size() - 1) {
+                BitSet pages = wordPages.get(word);
+                if (pages == null) return hits;
+                candidates.and(pages);
+            } else {
+                // the last word may still be being typed.
+                BitSet prefixPages = new BitSet();
+                for (BitSet pages : wordPages.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                    prefixPages.or(pages);
+                }
+                candidates.and(prefixPages);
+            }
+        }
+
+        // find the hits on the candidate pages.
+        for (int page = candidates.nextSetBit(0); page >= 0 && hits.size() < maxHits; page = candidates.nextSetBit(page + 1)) {
+            String text = pageSearchText[page];
+            int from = 0;
+            int idx;
+            while (hits.size() < maxHits && (idx = text.indexOf(searchText, from)) >= 0) {
+                if (idx == 0 || !Character.isLetterOrDigit(text.charAt(idx - 1))) {
+                    hits.add(createHit(page, idx, idx + searchText.length()));
+                }
+                from = idx + 1;
+            }
+        }
+
+        return hits;
+    }
+
+    /**
+     * Stop indexing and discard the index.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        wordPages.clear();
+    }
+
+    private void indexPages() {
+        final PageTextExtractor extractor;
+        try {
+            // pdf-renderer documents are not thread safe, so the index parses its own.
+            extractor = new PageTextExtractor(new PDFFile(data.duplicate()));
+        } catch (Exception e) {
+            System.out.println("Unable to index document: " + e);
+            return;
+        }
+
+        for (int page = 0; page < numPages && !Thread.currentThread().isInterrupted(); page++) {
+            String text;
+            try {
+                text = collapseWhitespace(extractor.extractText(page + 1));
+            } catch (Exception e) {
+                System.out.println("Unable to index page " + (page + 1) + ": " + e);
+                text = "";
+            }
+            if (!addPage(page, text)) return;
+
+            for (Listener listener : listeners) {
+                listener.pagesIndexed(page + 1, numPages);
+            }
+        }
+    }
+
+    /**
+     * Add the text of the next page to the index.
+     *
+     * @return false if the index has been closed.
+     */
+    private synchronized boolean addPage(int page, String text) {
+        if (closed) return false;
+
+        pageText[page] = text;
+        pageSearchText[page] = toSearchText(text);
+        for (String word : splitWords(pageSearchText[page])) {
+            wordPages.computeIfAbsent(word, w -> new BitSet()).set(page);
+        }
+        pagesIndexed = page + 1;
+
+        return true;
+    }
+
+    private Hit createHit(int page, int start, int end) {
+        final String text = pageText[page];
+        int snippetStart = Math.max(0, start - SNIPPET_CONTEXT);
+        int snippetEnd = Math.min(text.length(), end + SNIPPET_CONTEXT);
+        String prefix = snippetStart > 0 ? "..." : "";
+        String suffix = snippetEnd < text.length() ? "..." : "";
+        String snippet = prefix + text.substring(snippetStart, snippetEnd).replace('\n', ' ') + suffix;
+        int matchStart = prefix.length() + start - snippetStart;
+
+        return new Hit(page + 1, snippet, matchStart, matchStart + end - start);
+    }
+
+    /**
+     * @return the text with each run of whitespace replaced by a single space, or line break if the run had one.
+     */
+    private static String collapseWhitespace(String text) {
+        StringBuilder collapsed = new StringBuilder(text.length());
+        boolean inWhitespace = false;
+        boolean lineBreak = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                inWhitespace = true;
+                lineBreak |= c == '\n' || c == '\r';
+            } else {
+                if (inWhitespace && collapsed.length() > 0) {
+                    collapsed.append(lineBreak ? '\n' : ' ');
+                }
+                inWhitespace = false;
+                lineBreak = false;
+                collapsed.append(c);
+            }
+        }
+        return collapsed.toString();
+    }
+
+    /**
+     * @return the text in lower case with line breaks as spaces, char for char so that offsets are the same.
+     */
+    private static String toSearchText(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = chars[i] == '\n' ? ' ' : Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the words in some search text, a word being a run of letters and digits.
+     */
+    private static List<String> splitWords(String searchText) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= searchText.length(); i++) {
+            boolean wordChar = i < searchText.length() && Character.isLetterOrDigit(searchText.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(searchText.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
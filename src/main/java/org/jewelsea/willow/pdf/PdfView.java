@@ -0,0 +1,697 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import com.sun.pdfview.PDFPage;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.geometry.Pos;
+import javafx.scene.control.*;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
+import javafx.scene.transform.NonInvertibleTransformException;
+import org.jewelsea.willow.util.LruCache;
+import org.jewelsea.willow.util.ResourceUtil;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.jewelsea.willow.util.ResourceUtil.getString;
+
+/**
+ * Displays a pdf document inside a browser tab.
+ *
+ * Pages are shown in a virtualized list, so only the pages in view have nodes and images.  Page images are rendered
+ * in the background by a PageRenderer and converted to JavaFX images off the JavaFX application thread.
+ *
+ * Pages are fitted to the width of the view and can be zoomed.  A zoomed page shows its fitted image stretched straight
+ * away, while sharp tiles of the part of the page in view are rendered over it, so memory use doesn't grow with the zoom.
+ * A strip of page thumbnails beside the pages is rendered in the background, the thumbnails in view first.
+ *
+ * The text of the document is indexed in the background the first time it is searched.  The search is rerun as the
+ * user types and as more pages are indexed; pages with hits are outlined and the hits are listed beside the pages.
+ */
+public class PdfView extends BorderPane {
+    /** max number of converted page images kept for pages scrolled back into view. */
+    private static final int MAX_CACHED_IMAGES = 16;
+    /** space around each page. */
+    private static final double PAGE_PADDING = 8;
+    /** max number of search hits listed. */
+    private static final int MAX_HITS = 500;
+    /** max zoom factor relative to the pages fitted to the width of the view. */
+    public static final double MAX_ZOOM = 16;
+    /** factor the zoom changes by with each step. */
+    private static final double ZOOM_STEP = 1.25;
+    /** width and height of a tile of a zoomed page, in pixels. */
+    private static final int TILE_SIZE = 256;
+    /** max number of converted tile images kept for tiles scrolled back into view. */
+    private static final int MAX_CACHED_TILES = 64;
+    /** width of a thumbnail in pixels. */
+    private static final int THUMB_WIDTH = 96;
+    /** space around each thumbnail. */
+    private static final double THUMB_PADDING = 6;
+    /** memory budget for rendered thumbnails. */
+    private static final long THUMB_BUDGET_BYTES = 32L * 1024 * 1024;
+    /** max number of converted thumbnail images kept. */
+    private static final int MAX_CACHED_THUMBS = 200;
+    /** priority of thumbnails in view, after the viewed page and its prefetches. */
+    private static final int IN_VIEW_THUMB_PRIORITY = 100;
+    /** priority of thumbnails out of view. */
+    private static final int OUT_OF_VIEW_THUMB_PRIORITY = 1000;
+    private static final String PAGE_STYLE = "-fx-background-color: white; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.4), 6, 0, 0, 1);";
+    private static final String HIT_PAGE_STYLE = "-fx-border-color: gold; -fx-border-width: 3;";
+    private static final String CURRENT_HIT_PAGE_STYLE = "-fx-border-color: darkorange; -fx-border-width: 3;";
+
+    private final String location;
+    private final PdfDocumentCache documentCache = PdfDocumentCache.getInstance();
+    private CompletableFuture<PdfDocument> pendingDocument;
+    private PdfTextIndex.Listener indexListener;
+    private final ProgressBar fetchProgress = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+    private final ListView<Integer> pageList = new ListView<>();
+    private final LruCache<PageImageKey, Image> images = new LruCache<>(MAX_CACHED_IMAGES);
+    private final LruCache<PageImageKey, Image> tileImages = new LruCache<>(MAX_CACHED_TILES);
+    /** zoom factor relative to the pages fitted to the width of the view, pages are tiled when the zoom is more than 1. */
+    private double zoom = 1;
+    private final Label zoomLabel = new Label("100%");
+
+    private final ListView<Integer> thumbList = new ListView<>();
+    private final RenderedPageCache thumbCache = new RenderedPageCache(THUMB_BUDGET_BYTES);
+    private final LruCache<Integer, Image> thumbImages = new LruCache<>(MAX_CACHED_THUMBS);
+    private int thumbHeight;
+
+    private final TextField searchField = new TextField();
+    private final Label searchStatus = new Label();
+    private final ListView<PdfTextIndex.Hit> hitList = new ListView<>();
+    /** the pages with search hits, and the page of the hit last jumped to. */
+    private Set<Integer> hitPages = Collections.emptySet();
+    private int currentHitPage;
+    /** true while a search triggered by indexing progress is waiting to run. */
+    private final AtomicBoolean searchQueued = new AtomicBoolean();
+
+    private PdfDocument document;
+    private PageRenderer renderer;
+    private PdfTextIndex textIndex;
+    private boolean closed;
+
+    /**
+     * Create a view of a pdf document, the document is fetched in the background.
+     *
+     * @param location the location of the document.
+     */
+    public PdfView(String location) {
+        this.location = location;
+        getStyleClass().add("pdf-view");
+
+        // show the fetch progress until the document is ready.
+        fetchProgress.setPrefWidth(300);
+        Label fetchLabel = new Label(getString("pdf-view.loading") + " " + location);
+        VBox loading = new VBox(10, fetchLabel, fetchProgress);
+        loading.setAlignment(Pos.CENTER);
+        setCenter(loading);
+
+        fetch();
+    }
+
+    /** @return the location of the document shown. */
+    public String getLocation() {
+        return location;
+    }
+
+    /** @return the document shown, or null if it hasn't been fetched yet. */
+    public PdfDocument getDocument() {
+        return document;
+    }
+
+    private void fetch() {
+        // the document may already be open elsewhere, or kept from an earlier view.
+        pendingDocument = documentCache.acquire(location, (bytesRead, totalBytes) -> {
+            if (totalBytes > 0) {
+                Platform.runLater(() -> fetchProgress.setProgress(bytesRead / (double) totalBytes));
+            }
+        });
+        pendingDocument.whenCompleteAsync((fetched, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (!(cause instanceof CancellationException)) {
+                    System.out.println("Unable to open pdf " + location + ": " + cause);
+                    setCenter(new Label(getString("pdf-view.failed") + " " + location));
+                }
+            } else if (closed) {
+                // the view was closed while the document was on its way.
+                documentCache.release(fetched);
+            } else {
+                show(fetched);
+            }
+        }, Platform::runLater);
+    }
+
+    private void show(PdfDocument fetched) {
+        document = fetched;
+        final int numPages = document.getPDFFile().getNumPages();
+        renderer = new PageRenderer(document.getData(), numPages, new RenderedPageCache());
+
+        // create a toolbar for jumping between pages.
+        final TextField pageField = new TextField("1");
+        pageField.setPrefColumnCount(4);
+        pageField.setOnAction(event -> {
+            try {
+                int pageNumber = Integer.parseInt(pageField.getText().trim());
+                showPage(Math.max(1, Math.min(numPages, pageNumber)));
+            } catch (NumberFormatException e) {
+                // not a page number - no action required.
+            }
+            pageField.selectAll();
+        });
+        // create zoom controls, the shortcut key and the scroll wheel zoom too.
+        final Button zoomOutButton = new Button("-");
+        zoomOutButton.setTooltip(new Tooltip(getString("pdf-view.zoom-out.tooltip")));
+        zoomOutButton.setOnAction(event -> setZoom(zoom / ZOOM_STEP));
+        final Button zoomInButton = new Button("+");
+        zoomInButton.setTooltip(new Tooltip(getString("pdf-view.zoom-in.tooltip")));
+        zoomInButton.setOnAction(event -> setZoom(zoom * ZOOM_STEP));
+        final Button fitButton = new Button(getString("pdf-view.fit-width"));
+        fitButton.setTooltip(new Tooltip(getString("pdf-view.fit-width.tooltip")));
+        fitButton.setOnAction(event -> setZoom(1));
+        zoomLabel.setMinWidth(USE_PREF_SIZE);
+        pageList.addEventFilter(ScrollEvent.SCROLL, event -> {
+            if (event.isShortcutDown() && event.getDeltaY() != 0) {
+                setZoom(event.getDeltaY() > 0 ? zoom * ZOOM_STEP : zoom / ZOOM_STEP);
+                event.consume();
+            }
+        });
+        // create a search field, the document is indexed on the first search.
+        textIndex = document.getTextIndex();
+        indexListener = (pagesIndexed, total) -> {
+            // coalesce the updates, the index can get ahead of the ui.
+            if (searchQueued.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    searchQueued.set(false);
+                    search();
+                });
+            }
+        };
+        textIndex.addListener(indexListener);
+        searchField.setPromptText(getString("pdf-view.search"));
+        searchField.setPrefColumnCount(20);
+        searchField.textProperty().addListener((observable, oldText, newText) -> {
+            textIndex.start();
+            search();
+        });
+        // enter steps through the pages with hits.
+        searchField.setOnAction(event -> nextHitPage());
+
+        hitList.setCellFactory(list -> new HitCell());
+        hitList.setPrefWidth(260);
+        hitList.getSelectionModel().selectedItemProperty().addListener((observable, oldHit, hit) -> {
+            if (hit != null) jumpToHitPage(hit.getPageNumber());
+        });
+
+        HBox toolbar = new HBox(5,
+                new Label(getString("pdf-view.page")), pageField, new Label("/ " + numPages),
+                new Separator(Orientation.VERTICAL), zoomOutButton, zoomLabel, zoomInButton, fitButton,
+                new Separator(Orientation.VERTICAL), searchField, searchStatus
+        );
+        toolbar.setAlignment(Pos.CENTER_LEFT);
+        toolbar.setPadding(new Insets(5));
+        toolbar.getStyleClass().add("pdf-toolbar");
+
+        // create a list of pages, page images are made as the pages scroll into view.
+        for (int i = 1; i <= numPages; i++) {
+            pageList.getItems().add(i);
+        }
+        pageList.setCellFactory(list -> new PageCell());
+        pageList.setFocusTraversable(true);
+        // pages are fitted to the width of the list, so need new images when the width changes.
+        pageList.widthProperty().addListener((observable, oldWidth, newWidth) -> pageList.refresh());
+
+        // create a strip of thumbnails, sized by the shape of the first page as parsing every page up front is slow.
+        PDFPage first = document.getPDFFile().getPage(1);
+        thumbHeight = first != null && first.getAspectRatio() > 0
+                ? Math.round(THUMB_WIDTH / first.getAspectRatio())
+                : (int) (THUMB_WIDTH * 11 / 8.5);
+        thumbList.setItems(pageList.getItems());
+        thumbList.setCellFactory(list -> new ThumbCell());
+        thumbList.setFixedCellSize(thumbHeight + 2 * THUMB_PADDING);
+        thumbList.setPrefWidth(THUMB_WIDTH + 2 * THUMB_PADDING + 20);
+        thumbList.getSelectionModel().selectedIndexProperty().addListener((observable, oldIndex, index) -> {
+            if (index.intValue() >= 0) showPage(index.intValue() + 1);
+        });
+        // queue every thumbnail in page order, the ones in view jump the queue when they are shown.
+        for (int i = 1; i <= numPages; i++) {
+            renderer.render(thumbKey(i), OUT_OF_VIEW_THUMB_PRIORITY + i, thumbCache);
+        }
+
+        setTop(toolbar);
+        setLeft(thumbList);
+        setCenter(pageList);
+    }
+
+    /**
+     * Scroll to a page.
+     *
+     * @param pageNumber the page to show, starting at 1.
+     */
+    public void showPage(int pageNumber) {
+        if (document != null) {
+            pageList.scrollTo(pageNumber - 1);
+            thumbList.getSelectionModel().select(pageNumber - 1);
+        }
+    }
+
+    /**
+     * Zoom the pages.
+     *
+     * @param newZoom zoom factor relative to the pages fitted to the width of the view, from 1 to MAX_ZOOM.
+     */
+    public void setZoom(double newZoom) {
+        newZoom = Math.max(1, Math.min(MAX_ZOOM, newZoom));
+        if (newZoom == zoom || document == null) return;
+
+        zoom = newZoom;
+        zoomLabel.setText(Math.round(zoom * 100) + "%");
+        pageList.refresh();
+    }
+
+    /** @return the zoom factor relative to the pages fitted to the width of the view. */
+    public double getZoom() {
+        return zoom;
+    }
+
+    private PageImageKey thumbKey(int pageNumber) {
+        return new PageImageKey(pageNumber, THUMB_WIDTH, thumbHeight, null);
+    }
+
+    /**
+     * Search the pages indexed so far for the text in the search field, listing and outlining the hits.
+     */
+    private void search() {
+        if (closed || textIndex == null) return;
+
+        final String query = searchField.getText();
+        if (query == null || query.trim().isEmpty()) {
+            hitList.getItems().clear();
+            searchStatus.setText("");
+            setRight(null);
+            showHitPages(Collections.emptySet());
+            return;
+        }
+
+        List<PdfTextIndex.Hit> hits = textIndex.search(query, MAX_HITS);
+        hitList.getItems().setAll(hits);
+        Set<Integer> pages = new HashSet<>();
+        for (PdfTextIndex.Hit hit : hits) {
+            pages.add(hit.getPageNumber());
+        }
+        showHitPages(pages);
+
+        String status = hits.size() + (hits.size() >= MAX_HITS ? "+ " : " ") + getString("pdf-view.hits");
+        if (!textIndex.isComplete()) {
+            status += " (" + getString("pdf-view.indexing") + " "
+                    + textIndex.getPagesIndexed() + " / " + textIndex.getNumPages() + ")";
+        }
+        searchStatus.setText(status);
+        setRight(hitList);
+    }
+
+    private void showHitPages(Set<Integer> pages) {
+        if (!pages.equals(hitPages)) {
+            hitPages = pages;
+            pageList.refresh();
+        }
+    }
+
+    /**
+     * Jump to the next page after the current one with a search hit, wrapping around to the first.
+     */
+    private void nextHitPage() {
+        int next = -1;
+        for (PdfTextIndex.Hit hit : hitList.getItems()) {
+            int page = hit.getPageNumber();
+            if (page > currentHitPage) {
+                next = page;
+                break;
+            }
+            if (next < 0) next = page;
+        }
+        if (next > 0) jumpToHitPage(next);
+    }
+
+    private void jumpToHitPage(int pageNumber) {
+        currentHitPage = pageNumber;
+        showPage(pageNumber);
+        pageList.refresh();
+    }
+
+    /**
+     * Release the document and stop any background work for it.
+     */
+    public void close() {
+        closed = true;
+        if (pendingDocument != null) {
+            pendingDocument.cancel(false);
+        }
+        if (renderer != null) {
+            renderer.close();
+        }
+        if (textIndex != null) {
+            textIndex.removeListener(indexListener);
+        }
+        if (document != null) {
+            // the document stays open while other views show it, and may be kept for reuse.
+            documentCache.release(document);
+        }
+        images.clear();
+        tileImages.clear();
+        thumbCache.clear();
+        thumbImages.clear();
+    }
+
+    /**
+     * Displays a page image fitted to the width of the page list, with tiles of the part in view over it when zoomed.
+     */
+    private class PageCell extends ListCell<Integer> {
+        private final ImageView imageView = new ImageView();
+        /** the tiles of a zoomed page, laid over the stretched page image which stands in for them until they arrive. */
+        private final Pane tilePane = new Pane();
+        private final StackPane frame = new StackPane(imageView, tilePane);
+        private final Map<PageImageKey, ImageView> tiles = new HashMap<>();
+        private PageImageKey key;
+        private PDFPage page;
+        /** the size the page is displayed at, taking the zoom into account. */
+        private int displayWidth;
+        private int displayHeight;
+
+        PageCell() {
+            frame.getStyleClass().add("pdf-page");
+            frame.setStyle(PAGE_STYLE);
+            frame.setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+            tilePane.setManaged(false);
+            setAlignment(Pos.CENTER);
+            setPadding(new Insets(PAGE_PADDING));
+            setStyle("-fx-background-color: gray;");
+
+            // the tiles in view change as the page is scrolled.
+            frame.localToSceneTransformProperty().addListener(observable -> updateTiles());
+        }
+
+        @Override
+        protected void updateItem(Integer pageNumber, boolean empty) {
+            super.updateItem(pageNumber, empty);
+
+            // a malformed page can't be parsed, so there is nothing to show for it.
+            page = empty || pageNumber == null || renderer == null ? null : document.getPDFFile().getPage(pageNumber);
+            if (page == null) {
+                key = null;
+                imageView.setImage(null);
+                updateTiles();
+                setGraphic(null);
+                return;
+            }
+
+            // size the page to fit the width of the list, leaving room for a scroll bar.
+            double width = Math.max(1, pageList.getWidth() - 2 * PAGE_PADDING - 20);
+            Dimension size = page.getUnstretchedSize((int) width, Integer.MAX_VALUE, null);
+            displayWidth = (int) Math.round(size.width * zoom);
+            displayHeight = (int) Math.round(size.height * zoom);
+            frame.setPrefSize(displayWidth, displayHeight);
+            imageView.setFitWidth(displayWidth);
+            imageView.setFitHeight(displayHeight);
+
+            final PageImageKey pageKey = new PageImageKey(pageNumber, size.width, size.height, null);
+            if (!pageKey.equals(key)) {
+                key = pageKey;
+                Image cached = images.get(pageKey);
+                imageView.setImage(cached);
+                if (cached == null) {
+                    requestImage(pageKey);
+                }
+            }
+            updateTiles();
+
+            // outline pages with search hits.
+            if (pageNumber == currentHitPage && hitPages.contains(pageNumber)) {
+                frame.setStyle(PAGE_STYLE + CURRENT_HIT_PAGE_STYLE);
+            } else if (hitPages.contains(pageNumber)) {
+                frame.setStyle(PAGE_STYLE + HIT_PAGE_STYLE);
+            } else {
+                frame.setStyle(PAGE_STYLE);
+            }
+
+            setGraphic(frame);
+        }
+
+        /**
+         * Render a page image and convert it to a JavaFX image in the background, showing it if the cell is still
+         * showing the page when it arrives.
+         */
+        private void requestImage(PageImageKey pageKey) {
+            renderer.renderViewed(pageKey)
+                    .thenApply(rendered -> ResourceUtil.bufferedImageToFXImage(rendered, rendered.getWidth(), rendered.getHeight()))
+                    .thenAcceptAsync(image -> {
+                        if (closed) return;
+                        images.put(pageKey, image);
+                        if (pageKey.equals(key)) {
+                            imageView.setImage(image);
+                        }
+                    }, Platform::runLater)
+                    .exceptionally(e -> {
+                        // the render was cancelled because the document was closed - no action required.
+                        return null;
+                    });
+        }
+
+        /**
+         * Show the tiles of a zoomed page which are in view, asking for any we don't have yet, and drop the rest.
+         */
+        private void updateTiles() {
+            final Set<PageImageKey> wanted = new HashSet<>();
+            final Bounds inView = key != null && zoom > 1 && !closed ? visibleArea() : null;
+            if (inView != null) {
+                try {
+                    final AffineTransform imageToPage = page.getInitialTransform(displayWidth, displayHeight, null).createInverse();
+                    for (int tileY = (int) inView.getMinY() / TILE_SIZE; tileY * TILE_SIZE < inView.getMaxY(); tileY++) {
+                        for (int tileX = (int) inView.getMinX() / TILE_SIZE; tileX * TILE_SIZE < inView.getMaxX(); tileX++) {
+                            final Rectangle tile = new Rectangle(
+                                    tileX * TILE_SIZE,
+                                    tileY * TILE_SIZE,
+                                    Math.min(TILE_SIZE, displayWidth - tileX * TILE_SIZE),
+                                    Math.min(TILE_SIZE, displayHeight - tileY * TILE_SIZE)
+                            );
+                            // a tile is identified by the part of the page it shows, so tiles are cached per zoom level.
+                            final PageImageKey tileKey = new PageImageKey(
+                                    key.getPageNumber(),
+                                    tile.width,
+                                    tile.height,
+                                    imageToPage.createTransformedShape(tile).getBounds2D()
+                            );
+                            wanted.add(tileKey);
+                            if (!tiles.containsKey(tileKey)) {
+                                showTile(tileKey, tile.x, tile.y);
+                            }
+                        }
+                    }
+                } catch (NoninvertibleTransformException e) {
+                    // a degenerate page can't be tiled, the stretched page image is shown instead.
+                }
+            }
+
+            // tiles which have been scrolled out of view are no longer worth rendering.
+            for (Iterator<Map.Entry<PageImageKey, ImageView>> it = tiles.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<PageImageKey, ImageView> tile = it.next();
+                if (!wanted.contains(tile.getKey())) {
+                    if (tile.getValue().getImage() == null) {
+                        renderer.cancelIfWaiting(tile.getKey());
+                    }
+                    tilePane.getChildren().remove(tile.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        /** @return the part of the page in view in page image coordinates, or null if none of it is in view. */
+        private Bounds visibleArea() {
+            if (frame.getScene() == null || pageList.getScene() == null) return null;
+
+            final Bounds inView;
+            try {
+                inView = frame.getLocalToSceneTransform().inverseTransform(pageList.localToScene(pageList.getLayoutBounds()));
+            } catch (NonInvertibleTransformException e) {
+                return null;
+            }
+            final double minX = Math.max(0, inView.getMinX());
+            final double minY = Math.max(0, inView.getMinY());
+            final double maxX = Math.min(displayWidth, inView.getMaxX());
+            final double maxY = Math.min(displayHeight, inView.getMaxY());
+            return maxX > minX && maxY > minY ? new BoundingBox(minX, minY, maxX - minX, maxY - minY) : null;
+        }
+
+        /**
+         * Place a tile on the page, rendering it and converting it to a JavaFX image in the background if need be.
+         */
+        private void showTile(PageImageKey tileKey, int x, int y) {
+            final ImageView tileView = new ImageView(tileImages.get(tileKey));
+            tileView.relocate(x, y);
+            tiles.put(tileKey, tileView);
+            tilePane.getChildren().add(tileView);
+            if (tileView.getImage() != null) return;
+
+            renderer.render(tileKey, PageRenderer.VISIBLE_PRIORITY)
+                    .thenApply(rendered -> ResourceUtil.bufferedImageToFXImage(rendered, rendered.getWidth(), rendered.getHeight()))
+                    .thenAcceptAsync(image -> {
+                        if (closed) return;
+                        tileImages.put(tileKey, image);
+                        if (tiles.get(tileKey) == tileView) {
+                            tileView.setImage(image);
+                        }
+                    }, Platform::runLater)
+                    .exceptionally(e -> {
+                        // the tile was scrolled out of view, or the document was closed - no action required.
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Displays a page thumbnail, selecting it shows the page.
+     */
+    private class ThumbCell extends ListCell<Integer> {
+        private final ImageView imageView = new ImageView();
+        private final StackPane frame = new StackPane(imageView);
+        private PageImageKey key;
+
+        ThumbCell() {
+            frame.setStyle(PAGE_STYLE);
+            frame.setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+            setAlignment(Pos.CENTER);
+            setPadding(new Insets(THUMB_PADDING));
+        }
+
+        @Override
+        protected void updateItem(Integer pageNumber, boolean empty) {
+            super.updateItem(pageNumber, empty);
+
+            if (empty || pageNumber == null || renderer == null) {
+                key = null;
+                imageView.setImage(null);
+                setGraphic(null);
+                return;
+            }
+
+            frame.setPrefSize(THUMB_WIDTH, thumbHeight);
+            final PageImageKey thumbKey = thumbKey(pageNumber);
+            if (!thumbKey.equals(key)) {
+                key = thumbKey;
+                Image cached = thumbImages.get(pageNumber);
+                if (cached == null) {
+                    BufferedImage rendered = thumbCache.get(thumbKey);
+                    if (rendered != null) {
+                        cached = ResourceUtil.bufferedImageToFXImage(rendered, rendered.getWidth(), rendered.getHeight());
+                        thumbImages.put(pageNumber, cached);
+                    }
+                }
+                imageView.setImage(cached);
+                if (cached == null) {
+                    requestThumb(thumbKey);
+                }
+            }
+
+            setGraphic(frame);
+        }
+
+        /**
+         * The thumbnail is in view, so move it up the queue, showing it if the cell is still showing it when it arrives.
+         */
+        private void requestThumb(PageImageKey thumbKey) {
+            renderer.render(thumbKey, IN_VIEW_THUMB_PRIORITY, thumbCache)
+                    .thenApply(rendered -> ResourceUtil.bufferedImageToFXImage(rendered, rendered.getWidth(), rendered.getHeight()))
+                    .thenAcceptAsync(image -> {
+                        if (closed) return;
+                        thumbImages.put(thumbKey.getPageNumber(), image);
+                        if (thumbKey.equals(key)) {
+                            imageView.setImage(image);
+                        }
+                    }, Platform::runLater)
+                    .exceptionally(e -> {
+                        // the render was cancelled because the document was closed - no action required.
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Displays a search hit: its page and the text around it, with the hit in bold.
+     */
+    private static class HitCell extends ListCell<PdfTextIndex.Hit> {
+        @Override
+        protected void updateItem(PdfTextIndex.Hit hit, boolean empty) {
+            super.updateItem(hit, empty);
+
+            if (empty || hit == null) {
+                setGraphic(null);
+                return;
+            }
+
+            final String snippet = hit.getSnippet();
+            Text page = new Text(getString("pdf-view.page") + " " + hit.getPageNumber() + ": ");
+            page.setFill(Color.GRAY);
+            Text match = new Text(snippet.substring(hit.getSnippetMatchStart(), hit.getSnippetMatchEnd()));
+            match.setFont(Font.font(Font.getDefault().getFamily(), FontWeight.BOLD, Font.getDefault().getSize()));
+            TextFlow flow = new TextFlow(
+                    page,
+                    new Text(snippet.substring(0, hit.getSnippetMatchStart())),
+                    match,
+                    new Text(snippet.substring(hit.getSnippetMatchEnd()))
+            );
+            flow.setPrefWidth(getListView().getPrefWidth() - 30);
+            setGraphic(flow);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.pdf;
+
+import org.jewelsea.willow.util.LruCache;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Memory budgeted cache of rendered pdf page images.
+ *
+ * Images are weighed by the memory their pixels take up, the least recently used images are discarded when the
+ * budget is exceeded.
+ */
+public class RenderedPageCache {
+    /** default memory budget for rendered pages. */
+    public static final long DEFAULT_BUDGET_BYTES = 128L * 1024 * 1024;
+    /** images are weighed in units of this many bytes, so that large images don't overflow the weight of an entry. */
+    private static final int WEIGHT_UNIT_BYTES = 1024;
+
+    private final LruCache<PageImageKey, BufferedImage> images;
+
+    public RenderedPageCache() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    /**
+     * @param budgetBytes the max number of bytes of image data to keep.
+     */
+    public RenderedPageCache(long budgetBytes) {
+        // a single segment, so that each image can use the whole budget; only a few threads render pages anyway.
+        images = new LruCache<>(
+                budgetBytes / WEIGHT_UNIT_BYTES,
+                1,
+                (key, image) -> weigh(image),
+                null
+        );
+    }
+
+    /**
+     * @return the cached image for the key or null if there is no such image.
+     */
+    public BufferedImage get(PageImageKey key) {
+        return images.get(key);
+    }
+
+    public void put(PageImageKey key, BufferedImage image) {
+        images.put(key, image);
+    }
+
+    /**
+     * Discard all of the cached images.
+     */
+    public void clear() {
+        images.clear();
+    }
+
+    /**
+     * @return the approximate number of bytes used by an image.
+     */
+    private static int weigh(BufferedImage image) {
+        long bytes = (long) image.getWidth() * image.getHeight()
+                * Math.max(1, image.getColorModel().getPixelSize() / 8);
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + WEIGHT_UNIT_BYTES - 1) / WEIGHT_UNIT_BYTES);
+    }
+
+    @Override
+    public String toString() {
+        return "RenderedPageCache[" + images + "]";
+    }
+}
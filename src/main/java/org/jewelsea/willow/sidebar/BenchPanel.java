@@ -29,6 +29,7 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import org.jewelsea.willow.Willow;
+import org.jewelsea.willow.util.Preconnector;
 import org.jewelsea.willow.util.ResourceUtil;
 
 import static org.jewelsea.willow.util.ResourceUtil.getString;
@@ -77,6 +78,8 @@ public class BenchPanel extends TitledPane {
                 benchLink.setAlignment(Pos.CENTER_LEFT);
                 benchLink.setContentDisplay(ContentDisplay.LEFT);
                 benchLink.setOnAction(actionEvent -> chrome.getBrowser().navTo(link[1]));
+                benchLink.setOnMouseEntered(event -> Preconnector.getInstance().preconnect(link[1]));
+                benchLink.setOnMouseExited(event -> Preconnector.getInstance().cancel(link[1]));
                 benchPanel.getChildren().add(benchLink);
                 benchLink.setMaxWidth(Double.MAX_VALUE);
                 VBox.setMargin(benchLink, new Insets(0, 5, 0, 5));
@@ -28,6 +28,7 @@ import javafx.scene.control.TitledPane;
 import javafx.scene.layout.VBox;
 import org.jewelsea.willow.Willow;
 import org.jewelsea.willow.navigation.BookmarkHandler;
+import org.jewelsea.willow.util.Preconnector;
 import org.jewelsea.willow.widgets.IconButton;
 
 import static org.jewelsea.willow.util.ResourceUtil.getString;
@@ -58,8 +59,14 @@ public class DemoPanel extends TitledPane {
                 canvasMenu.show(canvasButton, Side.BOTTOM, 0, 0)
         );
         for (String[] bookmark : canvasBookmarks) {
-            BookmarkHandler.installBookmark(chrome, canvasMenu, bookmark[0], bookmark[1]);
+            canvasMenu.getItems().add(BookmarkHandler.createMenuItem(chrome, bookmark[0], bookmark[1]));
         }
+        // the menu's items can't be hovered before it is shown, so get ready for all of them when the button is.
+        canvasButton.setOnMouseEntered(event -> {
+            for (String[] bookmark : canvasBookmarks) {
+                Preconnector.getInstance().preconnect(bookmark[1]);
+            }
+        });
 
         // create a box for demos.
         VBox demoBox = new VBox();  // todo generalize this title stuff creation for sidebar items.
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.sidebar;
+
+import javafx.beans.binding.Bindings;
+import javafx.collections.ListChangeListener;
+import javafx.geometry.Pos;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import org.jewelsea.willow.download.Download;
+import org.jewelsea.willow.download.DownloadManager;
+
+import static org.jewelsea.willow.util.ResourceUtil.getString;
+
+/**
+ * Sidebar panel listing the downloads.
+ */
+public class DownloadPanel extends TitledPane {
+    public DownloadPanel() {
+        final DownloadManager downloadManager = DownloadManager.getInstance();
+
+        // create a list of downloads.
+        final ListView<Download> downloadList = new ListView<>(downloadManager.getDownloads());
+        downloadList.setCellFactory(list -> new DownloadCell());
+        downloadList.setPrefHeight(150);
+        downloadList.setPlaceholder(new Label(getString("download-panel.empty")));
+
+        // create a button to tidy up the list.
+        final Button clearButton = new Button(getString("download-panel.clear"));
+        clearButton.setOnAction(event -> downloadManager.clearFinished());
+        clearButton.disableProperty().bind(Bindings.isEmpty(downloadManager.getDownloads()));
+
+        // create a box for the downloads.
+        VBox downloadBox = new VBox();
+        downloadBox.setSpacing(5);
+        downloadBox.setStyle("-fx-padding: 5");
+        downloadBox.getChildren().addAll(downloadList, clearButton);
+
+        setText(getString("download-panel.title"));
+        setContent(downloadBox);
+        getStyleClass().add("sidebar-panel");
+        setExpanded(false);
+
+        // show the downloads when a new download starts.
+        downloadManager.getDownloads().addListener((ListChangeListener<Download>) change -> {
+            while (change.next()) {
+                if (change.wasAdded()) setExpanded(true);
+            }
+        });
+    }
+
+    /**
+     * Displays the name, progress and controls for a download.
+     */
+    private static class DownloadCell extends ListCell<Download> {
+        private final Label name = new Label();
+        private final ProgressBar progress = new ProgressBar();
+        private final Label status = new Label();
+        private final Button pauseResume = new Button();
+        private final Button cancel = new Button(getString("download-panel.cancel"));
+        private final VBox layout;
+
+        DownloadCell() {
+            progress.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(progress, Priority.ALWAYS);
+            HBox controls = new HBox(5, progress, pauseResume, cancel);
+            controls.setAlignment(Pos.CENTER_LEFT);
+            layout = new VBox(2, name, controls, status);
+
+            pauseResume.setOnAction(event -> {
+                Download download = getItem();
+                if (download == null) return;
+                if (download.stateProperty().get() == Download.State.PAUSED
+                        || download.stateProperty().get() == Download.State.FAILED) {
+                    download.resume();
+                } else {
+                    download.pause();
+                }
+            });
+            cancel.setOnAction(event -> {
+                if (getItem() != null) getItem().cancel();
+            });
+        }
+
+        @Override
+        protected void updateItem(Download download, boolean empty) {
+            super.updateItem(download, empty);
+
+            progress.progressProperty().unbind();
+            status.textProperty().unbind();
+            pauseResume.textProperty().unbind();
+            pauseResume.visibleProperty().unbind();
+            cancel.visibleProperty().unbind();
+
+            if (empty || download == null) {
+                setGraphic(null);
+                return;
+            }
+
+            name.setText(download.getFile().getName());
+            name.setTooltip(new Tooltip(download.getLocation()));
+
+            progress.progressProperty().bind(Bindings.createDoubleBinding(() -> {
+                        long total = download.totalBytesProperty().get();
+                        if (download.stateProperty().get() == Download.State.COMPLETED) return 1.0;
+                        if (total <= 0) return ProgressBar.INDETERMINATE_PROGRESS;
+                        return download.bytesDoneProperty().get() / (double) total;
+                    },
+                    download.bytesDoneProperty(), download.totalBytesProperty(), download.stateProperty()
+            ));
+            status.textProperty().bind(Bindings.createStringBinding(
+                    () -> describe(download),
+                    download.bytesDoneProperty(), download.totalBytesProperty(),
+                    download.bytesPerSecondProperty(), download.stateProperty(), download.errorProperty()
+            ));
+            pauseResume.textProperty().bind(Bindings.createStringBinding(() -> {
+                        Download.State state = download.stateProperty().get();
+                        if (state == Download.State.PAUSED) return getString("download-panel.resume");
+                        if (state == Download.State.FAILED) return getString("download-panel.retry");
+                        return getString("download-panel.pause");
+                    },
+                    download.stateProperty()
+            ));
+            pauseResume.visibleProperty().bind(Bindings.createBooleanBinding(
+                    () -> !isFinished(download.stateProperty().get()),
+                    download.stateProperty()
+            ));
+            cancel.visibleProperty().bind(pauseResume.visibleProperty());
+
+            setGraphic(layout);
+        }
+
+        private static boolean isFinished(Download.State state) {
+            return state == Download.State.COMPLETED || state == Download.State.CANCELLED;
+        }
+
+        /**
+         * @return a description of the state of a download, e.g. "1.2 MB / 4.0 MB (350.0 KB/s)"
+         */
+        private static String describe(Download download) {
+            final long done = download.bytesDoneProperty().get();
+            final long total = download.totalBytesProperty().get();
+            switch (download.stateProperty().get()) {
+                case CONNECTING:
+                    return getString("download-panel.connecting");
+                case DOWNLOADING:
+                    return (total > 0 ? formatBytes(done) + " / " + formatBytes(total) : formatBytes(done))
+                            + " (" + formatBytes((long) download.bytesPerSecondProperty().get()) + "/s)";
+                case PAUSED:
+                    return getString("download-panel.paused") + " " + formatBytes(done)
+                            + (total > 0 ? " / " + formatBytes(total) : "");
+                case COMPLETED:
+                    return getString("download-panel.completed") + " " + formatBytes(done);
+                case CANCELLED:
+                    return getString("download-panel.cancelled");
+                case FAILED:
+                default:
+                    return getString("download-panel.failed") + " " + download.errorProperty().get();
+            }
+        }
+
+        private static String formatBytes(long bytes) {
+            if (bytes < 1024) return bytes + " B";
+            if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+            if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+            return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+}
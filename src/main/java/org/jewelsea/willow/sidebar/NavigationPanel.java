@@ -21,8 +21,8 @@
 
 package org.jewelsea.willow.sidebar;
 
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
-import javafx.geometry.Side;
 import javafx.scene.control.*;
 import javafx.scene.effect.ColorAdjust;
 import javafx.scene.image.ImageView;
@@ -30,7 +30,11 @@ import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.stage.Popup;
 import org.jewelsea.willow.Willow;
+import org.jewelsea.willow.bookmark.BookmarkStore;
+import org.jewelsea.willow.bookmark.BookmarkView;
+import org.jewelsea.willow.helpers.ImportExportHandler;
 import org.jewelsea.willow.navigation.BookmarkHandler;
 import org.jewelsea.willow.util.ResourceUtil;
 import org.jewelsea.willow.widgets.IconButton;
@@ -43,6 +47,9 @@ import static org.jewelsea.willow.util.ResourceUtil.getString;
 public class NavigationPanel extends TitledPane {
     final ContextMenu canvasMenu = new ContextMenu();
 
+    private static final double BOOKMARKS_POPUP_WIDTH = 350;
+    private static final double BOOKMARKS_POPUP_HEIGHT = 400;
+
     static final String[][] defaultBookmarks = {
             { "FX Experience",    "http://fxexperience.com/" },
             { "Jewelsea",         "http://jewelsea.wordpress.com/" },
@@ -89,17 +96,25 @@ public class NavigationPanel extends TitledPane {
                 chrome.getBrowser().getHistory().showMenu(historyButton)
         );
 
-        // create a bookmarksButton.
-        final ContextMenu bookmarksMenu = new ContextMenu();
+        // create a bookmarksButton, which pops up the bookmarks.
+        final Popup bookmarksPopup = new Popup();
+        bookmarksPopup.setAutoHide(true);
+        final BookmarkView bookmarkView = new BookmarkView(location -> {
+            bookmarksPopup.hide();
+            chrome.getBrowser().navTo(location);
+        });
+        bookmarkView.setPrefSize(BOOKMARKS_POPUP_WIDTH, BOOKMARKS_POPUP_HEIGHT);
+        bookmarksPopup.getContent().add(bookmarkView);
         final Button bookmarksButton = new IconButton(
                 getString("nav-panel.bookmarks"),
                 "1714696718.png",
                 getString("nav-panel.bookmarks.tooltip"),
                 null
         );
-        bookmarksButton.setOnAction(actionEvent ->
-                bookmarksMenu.show(bookmarksButton, Side.BOTTOM, 0, 0)
-        );
+        bookmarksButton.setOnAction(actionEvent -> {
+            Bounds buttonBounds = bookmarksButton.localToScreen(bookmarksButton.getBoundsInLocal());
+            bookmarksPopup.show(bookmarksButton, buttonBounds.getMinX(), buttonBounds.getMaxY());
+        });
         bookmarksButton.setOnDragOver(event -> {
             Dragboard db = event.getDragboard();
             if (db.hasString()) {
@@ -111,9 +126,9 @@ public class NavigationPanel extends TitledPane {
             Dragboard db = dragEvent.getDragboard();
             boolean success = false;
             if (db.hasString()) {
-                // add the dragged url to the bookmarks menu (if it wasn't already there).
+                // add the dragged url to the bookmarks (if it wasn't already there).
                 final String bookmarkUrl = db.getString();
-                if (BookmarkHandler.installBookmark(chrome, bookmarksMenu, bookmarkUrl, bookmarkUrl)) {
+                if (BookmarkHandler.installBookmark(bookmarkUrl, bookmarkUrl)) {
                     success = true;
                 }
             }
@@ -121,6 +136,22 @@ public class NavigationPanel extends TitledPane {
             dragEvent.consume();
         });
 
+        // create a menu for moving bookmarks and history between browsers.
+        final MenuItem importBookmarks = new MenuItem(getString("import-export.import-bookmarks"));
+        importBookmarks.setOnAction(event -> ImportExportHandler.importBookmarks(getScene().getWindow()));
+        final MenuItem exportBookmarks = new MenuItem(getString("import-export.export-bookmarks"));
+        exportBookmarks.setOnAction(event -> ImportExportHandler.exportBookmarks(getScene().getWindow()));
+        final MenuItem importHistory = new MenuItem(getString("import-export.import-history"));
+        importHistory.setOnAction(event -> ImportExportHandler.importHistory(getScene().getWindow()));
+        final MenuItem exportHistory = new MenuItem(getString("import-export.export-history"));
+        exportHistory.setOnAction(event -> ImportExportHandler.exportHistory(getScene().getWindow()));
+        final MenuButton importExportButton = new MenuButton(
+                getString("import-export"), null,
+                importBookmarks, exportBookmarks, new SeparatorMenuItem(), importHistory, exportHistory
+        );
+        importExportButton.setMaxWidth(Double.MAX_VALUE);
+        VBox.setMargin(importExportButton, new Insets(0, 5, 0, 5));
+
         // create a slider to manage the fontSize
         final Slider fontSize = new Slider(0.75, 1.515, 1.0);
         fontSize.setTooltip(new Tooltip(getString("nav-panel.fontsize.tooltip")));
@@ -159,13 +190,15 @@ public class NavigationPanel extends TitledPane {
         VBox navigationBox = new VBox();
         navigationBox.setSpacing(5);
         navigationBox.setStyle("-fx-padding: 5");
-        navigationBox.getChildren().addAll(homeButton, historyButton, bookmarksButton, readerButton, fontsizer);
+        navigationBox.getChildren().addAll(homeButton, historyButton, bookmarksButton, importExportButton, readerButton, fontsizer);
         final TitledPane navPanel = new TitledPane(getString("nav-panel.title"), navigationBox);
         navPanel.getStyleClass().add("sidebar-panel");
 
-        // create an initial set of bookmarks.
-        for (String[] bookmark : defaultBookmarks) {
-            BookmarkHandler.installBookmark(chrome, bookmarksMenu, bookmark[0], bookmark[1]);
+        // create an initial set of bookmarks the first time the browser is run.
+        if (BookmarkStore.getInstance().isFresh()) {
+            for (String[] bookmark : defaultBookmarks) {
+                BookmarkHandler.installBookmark(bookmark[0], bookmark[1]);
+            }
         }
 
         setText(getString("nav-panel.title"));
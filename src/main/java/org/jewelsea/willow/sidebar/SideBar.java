@@ -67,15 +67,18 @@ public class SideBar {
         final TitledPane developerPanel  = new DeveloperPanel(chrome);
         final TitledPane demoPanel       = new DemoPanel(chrome);
         final TitledPane benchPanel      = new BenchPanel(chrome);
+        final TitledPane downloadPanel   = new DownloadPanel();
 
         // size all of the panes similarly.
         navigationPanel.prefWidthProperty().bind(benchPanel.prefWidthProperty());
         developerPanel.prefWidthProperty().bind(benchPanel.prefWidthProperty());
         demoPanel.prefWidthProperty().bind(benchPanel.prefWidthProperty());
+        downloadPanel.prefWidthProperty().bind(benchPanel.prefWidthProperty());
 
         // put the panes inside the sidebar.
         bar.getChildren().addAll(
                 navigationPanel,
+                downloadPanel,
                 developerPanel,
                 demoPanel,
                 benchPanel,
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.util;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.Property;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects listeners and bindings made for a limited time, e.g. while a browser is displayed in the chrome, so that
+ * they can all be removed together when that time is up.
+ *
+ * Without a scope, a listener added to an object which outlives the listener's owner keeps firing (and keeps its owner
+ * alive) forever.
+ */
+public class BindingScope {
+    /** undoes each listener and binding, run in reverse of the order they were made. */
+    private final List<Runnable> disposers = new ArrayList<>();
+
+    /**
+     * Add a change listener which is removed when the scope is disposed.
+     */
+    public <T> void addListener(ObservableValue<T> observable, ChangeListener<? super T> listener) {
+        observable.addListener(listener);
+        disposers.add(() -> observable.removeListener(listener));
+    }
+
+    /**
+     * Add an invalidation listener which is removed when the scope is disposed.
+     */
+    public void addListener(Observable observable, InvalidationListener listener) {
+        observable.addListener(listener);
+        disposers.add(() -> observable.removeListener(listener));
+    }
+
+    /**
+     * Bind a property, replacing any existing binding; the property is unbound when the scope is disposed.
+     */
+    public <T> void bind(Property<T> property, ObservableValue<? extends T> source) {
+        property.unbind();
+        property.bind(source);
+        disposers.add(property::unbind);
+    }
+
+    /**
+     * Run some clean up when the scope is disposed.
+     */
+    public void onDispose(Runnable disposer) {
+        disposers.add(disposer);
+    }
+
+    /**
+     * Remove everything added to the scope, most recent first.  The scope can be reused afterwards.
+     */
+    public void dispose() {
+        for (int i = disposers.size() - 1; i >= 0; i--) {
+            disposers.get(i).run();
+        }
+        disposers.clear();
+    }
+}
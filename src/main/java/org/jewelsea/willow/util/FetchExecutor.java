@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.util;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs background network work (favicon fetches, downloads, etc.).
+ *
+ * Every task gets its own thread, so a stalled host can never hold up work for other hosts.
+ * To stop a single host from being flooded, the number of tasks running against any one host is capped,
+ * further tasks for the host wait in a queue for that host until a running task finishes.
+ *
+ * Connections opened through the executor have connect and read timeouts, and tasks can be cancelled by the owner
+ * which submitted them (e.g. when a browser tab is closed), which disconnects any connections the tasks have open.
+ */
+public class FetchExecutor {
+    /** prefix used for the names of fetching threads. */
+    public static final String FETCH_THREAD_PREFIX = "willow-fetcher-";
+    /** max time we wait to connect to a server. */
+    public static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    /** max time we wait for a server to send us some data. */
+    public static final int READ_TIMEOUT_MILLIS = 20_000;
+    /** max number of tasks we will run simultaneously against a single host. */
+    private static final int MAX_TASKS_PER_HOST = 4;
+
+    private static FetchExecutor instance;
+
+    /** a thread per task, idle threads are discarded after a while. */
+    private final ExecutorService threadpool;
+    /** tasks running or waiting to run for each host. */
+    private final Map<String, HostQueue> hostQueues = new HashMap<>();
+    /** tasks which have not yet completed, for each owner. */
+    private final Map<Object, Set<FetchTask<?>>> ownedTasks = new IdentityHashMap<>();
+    /** the task being run on the current thread. */
+    private final ThreadLocal<FetchTask<?>> currentTask = new ThreadLocal<>();
+
+    public FetchExecutor() {
+        // the threads are daemon threads, so that the application can exit even if a fetch is in progress or stalled.
+        threadpool = Executors.newCachedThreadPool(new ThreadFactory() {
+            ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread newThread = defaultFactory.newThread(r);
+                newThread.setName(FETCH_THREAD_PREFIX + newThread.getName());
+                newThread.setDaemon(true);
+                return newThread;
+            }
+        });
+    }
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized FetchExecutor getInstance() {
+        if (instance == null) instance = new FetchExecutor();
+        return instance;
+    }
+
+    /**
+     * Submit a task which will fetch something from a host.
+     *
+     * @param owner the owner of the task, used to cancel the task, may be null if the task can't be cancelled by owner.
+     * @param host  the host the task will fetch from (or any other key for limiting concurrency).
+     * @param task  the task to run.
+     * @return a future result of the task, cancelling the future cancels the task.
+     */
+    public <T> CompletableFuture<T> submit(final Object owner, final String host, final Callable<T> task) {
+        final FetchTask<T> fetchTask = new FetchTask<>(owner, host != null ? host : "", task);
+
+        synchronized (this) {
+            if (owner != null) {
+                ownedTasks.computeIfAbsent(owner, o -> new HashSet<>()).add(fetchTask);
+            }
+            HostQueue hostQueue = hostQueues.computeIfAbsent(fetchTask.host, h -> new HostQueue());
+            if (hostQueue.running < MAX_TASKS_PER_HOST) {
+                hostQueue.running++;
+                threadpool.execute(fetchTask);
+            } else {
+                hostQueue.pending.add(fetchTask);
+            }
+        }
+
+        return fetchTask.result;
+    }
+
+    /**
+     * Cancel all incomplete tasks submitted by an owner.
+     *
+     * @param owner the owner whose tasks are to be cancelled.
+     */
+    public void cancelAll(final Object owner) {
+        List<FetchTask<?>> tasks;
+        synchronized (this) {
+            Set<FetchTask<?>> owned = ownedTasks.remove(owner);
+            if (owned == null) return;
+            tasks = new ArrayList<>(owned);
+        }
+
+        for (FetchTask<?> task : tasks) {
+            task.result.cancel(true);
+        }
+    }
+
+    /**
+     * Open a connection to a url, with our standard timeouts.
+     *
+     * If called from a task run by this executor, the connection is disconnected if the task is cancelled.
+     *
+     * @param url the url to connect to.
+     * @return an unconnected connection to the url.
+     * @throws IOException if the connection could not be created.
+     */
+    public URLConnection openConnection(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        final FetchTask<?> task = currentTask.get();
+        if (task != null && connection instanceof HttpURLConnection) {
+            task.addConnection((HttpURLConnection) connection);
+        }
+
+        return connection;
+    }
+
+    /**
+     * @return the host of a location, or null if the location has no host.
+     */
+    public static String hostOf(final String location) {
+        try {
+            return new URL(location).getHost();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called when a task finishes (or is cancelled before it starts) so that queued tasks for the host can run.
+     */
+    private synchronized void finished(final FetchTask<?> task, final boolean wasRunning) {
+        if (task.owner != null) {
+            Set<FetchTask<?>> owned = ownedTasks.get(task.owner);
+            if (owned != null) {
+                owned.remove(task);
+                if (owned.isEmpty()) ownedTasks.remove(task.owner);
+            }
+        }
+
+        HostQueue hostQueue = hostQueues.get(task.host);
+        if (hostQueue == null) return;
+
+        if (!wasRunning) {
+            hostQueue.pending.remove(task);
+        } else {
+            FetchTask<?> next = hostQueue.pending.poll();
+            if (next != null) {
+                threadpool.execute(next);
+            } else {
+                hostQueue.running--;
+            }
+        }
+
+        if (hostQueue.running == 0 && hostQueue.pending.isEmpty()) {
+            hostQueues.remove(task.host);
+        }
+    }
+
+    /** tasks for a single host. */
+    private static class HostQueue {
+        int running = 0;
+        final Deque<FetchTask<?>> pending = new ArrayDeque<>();
+    }
+
+    /** a task, its result and the connections it has open. */
+    private class FetchTask<T> implements Runnable {
+        final Object owner;
+        final String host;
+        final Callable<T> task;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final List<HttpURLConnection> connections = new ArrayList<>();
+        Thread thread;
+        boolean started = false;
+
+        FetchTask(Object owner, String host, Callable<T> task) {
+            this.owner = owner;
+            this.host = host;
+            this.task = task;
+
+            // cancelling the result stops the task.
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) cancel();
+            });
+        }
+
+        @Override
+        public void run() {
+            final boolean cancelledWhileQueued;
+            synchronized (this) {
+                cancelledWhileQueued = result.isDone();
+                if (!cancelledWhileQueued) {
+                    started = true;
+                    thread = Thread.currentThread();
+                }
+            }
+            if (cancelledWhileQueued) {
+                finished(this, true);
+                return;
+            }
+
+            currentTask.set(this);
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                currentTask.remove();
+                synchronized (this) {
+                    thread = null;
+                    connections.clear();
+                }
+                // clear any interrupt caused by a cancellation, so it doesn't leak into the next task on the thread.
+                Thread.interrupted();
+                finished(this, true);
+            }
+        }
+
+        synchronized void addConnection(HttpURLConnection connection) {
+            connections.add(connection);
+            if (result.isCancelled()) connection.disconnect();
+        }
+
+        private void cancel() {
+            boolean wasStarted;
+            synchronized (this) {
+                wasStarted = started;
+                // interrupt first, so the task can tell that the failure of its disconnected connections is a cancellation.
+                if (thread != null) thread.interrupt();
+                for (HttpURLConnection connection : connections) {
+                    connection.disconnect();
+                }
+            }
+
+            if (!wasStarted) {
+                finished(this, false);
+            }
+        }
+    }
+}
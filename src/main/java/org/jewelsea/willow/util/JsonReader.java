@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a JSON document a token at a time, so large documents can be processed without holding them in memory.
+ *
+ * The reader is lenient about separators: commas and colons are skipped, and a string followed by a colon is read as a
+ * name.  That is enough for reading well formed files without tracking the full grammar.
+ */
+public class JsonReader implements Closeable {
+    /** the kinds of tokens in a JSON document. */
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    /** longest string read, so a corrupt file can't exhaust memory. */
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    private final Reader in;
+    /** a character read ahead, -2 if there isn't one. */
+    private int pushedBack = -2;
+    /** the next token, null if it hasn't been read yet. */
+    private Token peeked;
+    /** the text of the next token if it is a name, string, number or boolean. */
+    private String peekedText;
+
+    /**
+     * @param in where to read the document from, should be buffered.
+     */
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /** @return the kind of the next token, without consuming it. */
+    public Token peek() throws IOException {
+        if (peeked == null) readToken();
+        return peeked;
+    }
+
+    /** @return true if the current object or array has another element. */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    public String nextName() throws IOException {
+        return expect(Token.NAME);
+    }
+
+    /**
+     * @return the next value as text: strings, numbers and booleans are returned as written, null as null.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING || token == Token.NUMBER || token == Token.BOOLEAN || token == Token.NULL) {
+            return expect(token);
+        }
+        throw new IOException("Expected a value but found " + token);
+    }
+
+    /**
+     * @return the next value as a whole number, strings holding numbers are accepted too.
+     */
+    public long nextLong() throws IOException {
+        String text = nextString();
+        if (text == null) throw new IOException("Expected a number but found null");
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(text);
+            } catch (NumberFormatException notANumber) {
+                throw new IOException("Expected a number but found " + text);
+            }
+        }
+    }
+
+    /**
+     * Skip the next value, including everything in it if it is an object or array.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token == Token.END_DOCUMENT) throw new IOException("Unexpected end of document");
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) depth++;
+            if (token == Token.END_OBJECT || token == Token.END_ARRAY) depth--;
+            expect(token);
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) throw new IOException("Expected " + expected + " but found " + token);
+
+        String text = peekedText;
+        peeked = null;
+        peekedText = null;
+        return text;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    /** @return the next character which isn't whitespace or a separator, -1 at the end of the document. */
+    private int readSignificant(boolean skipColons) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',' || (skipColons && c == ':'));
+        return c;
+    }
+
+    private void readToken() throws IOException {
+        peekedText = null;
+        final int c = readSignificant(true);
+        switch (c) {
+            case -1:  peeked = Token.END_DOCUMENT; return;
+            case '{': peeked = Token.BEGIN_OBJECT; return;
+            case '}': peeked = Token.END_OBJECT;   return;
+            case '[': peeked = Token.BEGIN_ARRAY;  return;
+            case ']': peeked = Token.END_ARRAY;    return;
+            case '"':
+                peekedText = readString();
+                // a string followed by a colon is the name of an object member.
+                int next = readSignificant(false);
+                if (next == ':') {
+                    peeked = Token.NAME;
+                } else {
+                    pushedBack = next;
+                    peeked = Token.STRING;
+                }
+                return;
+            default:
+                String literal = readLiteral((char) c);
+                if ("null".equals(literal)) {
+                    peeked = Token.NULL;
+                } else if ("true".equals(literal) || "false".equals(literal)) {
+                    peeked = Token.BOOLEAN;
+                    peekedText = literal;
+                } else if (c == '-' || (c >= '0' && c <= '9')) {
+                    peeked = Token.NUMBER;
+                    peekedText = literal;
+                } else {
+                    throw new IOException("Unexpected " + literal);
+                }
+        }
+    }
+
+    private String readLiteral(char first) throws IOException {
+        StringBuilder literal = new StringBuilder().append(first);
+        while (true) {
+            int c = read();
+            if (c == -1 || c == ',' || c == ':' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                pushedBack = c;
+                return literal.toString();
+            }
+            literal.append((char) c);
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) throw new IOException("Unterminated string");
+            if (c == '"') return text.toString();
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < hex.length; i++) {
+                            int h = read();
+                            if (h == -1) throw new IOException("Unterminated string");
+                            hex[i] = (char) h;
+                        }
+                        try {
+                            c = Integer.parseInt(new String(hex), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Bad escape \\u" + new String(hex));
+                        }
+                        break;
+                    case -1:
+                        throw new IOException("Unterminated string");
+                    default:
+                        // \" \\ \/ stand for themselves.
+                        break;
+                }
+            }
+            if (text.length() >= MAX_STRING_LENGTH) throw new IOException("String too long");
+            text.append((char) c);
+        }
+    }
+}
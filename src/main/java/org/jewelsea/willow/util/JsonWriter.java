@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes a JSON document a token at a time, so large documents can be written without building them in memory.
+ */
+public class JsonWriter implements Closeable {
+    private final Writer out;
+    /** for each open object or array, whether it has no elements yet. */
+    private final Deque<Boolean> empty = new ArrayDeque<>();
+    /** true if a name was just written, so the value which follows it needs no separator. */
+    private boolean afterName;
+    /** true if the next element starts on a new line. */
+    private boolean lineBreak;
+
+    /**
+     * @param out where to write the document, should be buffered.
+     */
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        separate();
+        out.write('{');
+        empty.push(true);
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        empty.pop();
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        separate();
+        out.write('[');
+        empty.push(true);
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        empty.pop();
+        out.write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /** write a string, or null. */
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /** start the next element on a new line, for the elements of a long array so the file can be read and diffed. */
+    public JsonWriter newLine() {
+        lineBreak = true;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (!empty.isEmpty()) {
+            if (!empty.peek()) out.write(',');
+            empty.pop();
+            empty.push(false);
+        }
+        if (lineBreak) {
+            out.write('\n');
+            lineBreak = false;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n");  break;
+                case '\r': out.write("\\r");  break;
+                case '\t': out.write("\\t");  break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
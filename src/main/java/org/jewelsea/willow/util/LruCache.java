@@ -21,19 +21,372 @@
 
 package org.jewelsea.willow.util;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
 
-public class LruCache<A, B> extends LinkedHashMap<A, B> {
-    private final int maxEntries;
+/**
+ * A thread safe, bounded, least recently used cache.
+ *
+ * The cache is split into independently locked segments (stripes), each of which tracks the access order of its
+ * own entries, so that threads working with different keys rarely contend.  Each segment receives an equal share
+ * of the total weight budget and evicts its least recently used entries when that share is exceeded.
+ *
+ * By default every entry weighs 1, so the budget is simply a maximum number of entries.
+ * Null keys and values are not supported.
+ *
+ * @param <K> type of the cache keys.
+ * @param <V> type of the cached values.
+ */
+public class LruCache<K, V> {
+    /** max number of segments the cache is split into. */
+    private static final int MAX_SEGMENTS = 16;
+    /** minimum budget a segment receives, so that small caches are not split into uselessly small segments. */
+    private static final long MIN_SEGMENT_WEIGHT = 16;
 
+    private final Segment<K, V>[] segments;
+    private final long maxWeight;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final BiConsumer<? super K, ? super V> evictionListener;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache holding at most the given number of entries.
+     *
+     * @param maxEntries the max number of entries in the cache.
+     */
     public LruCache(final int maxEntries) {
-        super(maxEntries + 1, 1.0f, true);
-        this.maxEntries = maxEntries;
+        this(maxEntries, (key, value) -> 1, null);
+    }
+
+    /**
+     * Create a cache bounded by the total weight of its entries.
+     *
+     * @param maxWeight        the max total weight of the entries in the cache.
+     * @param weigher          computes the weight of an entry, weights must not be negative.
+     * @param evictionListener notified (outside of any cache lock) of entries evicted to make room, may be null.
+     */
+    public LruCache(
+            final long maxWeight,
+            final ToIntBiFunction<? super K, ? super V> weigher,
+            final BiConsumer<? super K, ? super V> evictionListener
+    ) {
+        this(maxWeight, MAX_SEGMENTS, weigher, evictionListener);
+    }
+
+    /**
+     * Create a cache bounded by the total weight of its entries, split into at most the given number of segments.
+     *
+     * Caches of a few heavy entries (e.g. images) should use a single segment, otherwise an entry may be evicted
+     * because its segment's share of the budget is full while the cache as a whole has plenty of room.
+     *
+     * @param maxWeight        the max total weight of the entries in the cache.
+     * @param maxSegments      the max number of independently locked segments.
+     * @param weigher          computes the weight of an entry, weights must not be negative.
+     * @param evictionListener notified (outside of any cache lock) of entries evicted to make room, may be null.
+     */
+    public LruCache(
+            final long maxWeight,
+            final int maxSegments,
+            final ToIntBiFunction<? super K, ? super V> weigher,
+            final BiConsumer<? super K, ? super V> evictionListener
+    ) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+
+        // use a power of two number of segments so that a segment can be selected by masking the key hash.
+        int nSegments = 1;
+        while (nSegments * 2 <= Math.min(maxSegments, MAX_SEGMENTS)
+                && maxWeight / (nSegments * 2) >= MIN_SEGMENT_WEIGHT) {
+            nSegments *= 2;
+        }
+        segments = newSegmentArray(nSegments);
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment<>(maxWeight / nSegments + (i < maxWeight % nSegments ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return the cached value for the key or null if there is no such value.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        segment.lock.lock();
+        try {
+            value = segment.get(key);
+        } finally {
+            segment.lock.unlock();
+        }
+
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return value;
+    }
+
+    /**
+     * Cache a value, replacing any existing value for the key.
+     *
+     * @return the value previously cached for the key or null if there was no such value.
+     */
+    public V put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        List<Map.Entry<K, V>> evicted;
+        V previous;
+        segment.lock.lock();
+        try {
+            previous = segment.put(key, value, weigher.applyAsInt(key, value));
+            evicted = segment.evict();
+        } finally {
+            segment.lock.unlock();
+        }
+        notifyEvicted(evicted);
+
+        return previous;
+    }
+
+    /**
+     * Get the cached value for a key, computing and caching a new value if there is no cached value.
+     *
+     * The computation is performed under the segment lock, so that a value is computed at most once per key;
+     * the computation should be quick and must not access the cache.
+     *
+     * @param key             the key to lookup.
+     * @param mappingFunction computes a value for the key, if the computed value is null nothing is cached.
+     * @return the cached or newly computed value.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Segment<K, V> segment = segmentFor(key);
+        List<Map.Entry<K, V>> evicted = null;
+        V value;
+        segment.lock.lock();
+        try {
+            value = segment.get(key);
+            if (value == null) {
+                misses.increment();
+                value = mappingFunction.apply(key);
+                if (value != null) {
+                    segment.put(key, value, weigher.applyAsInt(key, value));
+                    evicted = segment.evict();
+                }
+            } else {
+                hits.increment();
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        notifyEvicted(evicted);
+
+        return value;
+    }
+
+    /**
+     * Remove a value from the cache (removal is not considered an eviction).
+     *
+     * @return the removed value or null if no value was cached for the key.
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            return segment.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a value from the cache only if it is still the value cached for the key.
+     *
+     * @return true if the value was removed.
+     */
+    public boolean remove(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            if (segment.get(key) != value) return false;
+            segment.remove(key);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all values from the cache.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the entries in the cache.
+     */
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                weight += segment.weight;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return weight;
+    }
+
+    /** @return the max total weight of the entries in the cache. */
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    /** @return the number of lookups which found a cached value. */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of lookups which did not find a cached value. */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of entries evicted to keep the cache within its weight budget. */
+    public long evictionCount() {
+        return evictions.sum();
     }
 
     @Override
-    protected boolean removeEldestEntry(final Map.Entry<A, B> eldest) {
-        return super.size() > maxEntries;
+    public String toString() {
+        return "LruCache[size=" + size() + ", weight=" + weight() + "/" + maxWeight +
+                ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+
+    /** @return an empty array of segments, java can't create an array of a generic type directly. */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegmentArray(int length) {
+        return (Segment<K, V>[]) new Segment<?, ?>[length];
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        // spread the hash bits so that keys with poor low order bits still distribute over the segments.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private void notifyEvicted(List<Map.Entry<K, V>> evicted) {
+        if (evicted == null || evicted.isEmpty()) return;
+
+        evictions.add(evicted.size());
+        if (evictionListener != null) {
+            for (Map.Entry<K, V> entry : evicted) {
+                evictionListener.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** a cached value and its weight. */
+    private static class Weighted<V> {
+        final V value;
+        final int weight;
+
+        Weighted(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** a stripe of the cache, all access to a segment must be made while holding its lock. */
+    private static class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<K, Weighted<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxWeight;
+        long weight = 0;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        V get(K key) {
+            Weighted<V> entry = entries.get(key);
+            return entry != null ? entry.value : null;
+        }
+
+        V put(K key, V value, int valueWeight) {
+            Weighted<V> previous = entries.put(key, new Weighted<>(value, valueWeight));
+            weight += valueWeight;
+            if (previous != null) {
+                weight -= previous.weight;
+                return previous.value;
+            }
+            return null;
+        }
+
+        V remove(K key) {
+            Weighted<V> previous = entries.remove(key);
+            if (previous != null) {
+                weight -= previous.weight;
+                return previous.value;
+            }
+            return null;
+        }
+
+        void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        /** @return the entries removed to bring the segment back within its budget. */
+        List<Map.Entry<K, V>> evict() {
+            if (weight <= maxWeight) return null;
+
+            List<Map.Entry<K, V>> evicted = new ArrayList<>();
+            Iterator<Map.Entry<K, Weighted<V>>> eldest = entries.entrySet().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                Map.Entry<K, Weighted<V>> entry = eldest.next();
+                eldest.remove();
+                weight -= entry.getValue().weight;
+                evicted.add(Map.entry(entry.getKey(), entry.getValue().value));
+            }
+            return evicted;
+        }
     }
-} 
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets ready to navigate to locations the user looks likely to visit, e.g. the location they are typing or the
+ * bookmark under the mouse, by looking up the addresses of their hosts before the user commits to going there.
+ *
+ * The web view loads pages through the JVM's networking, which caches host lookups, so a navigation soon after a
+ * lookup skips the DNS round trip.  Lookups are speculative so they are kept cheap: only a couple run at once, only a
+ * few wait to run (the oldest intent is dropped for a newer one), there is a budget of lookups a minute, and a host
+ * looked up recently isn't looked up again.  A waiting lookup is cancelled when the user loses interest, e.g. moves
+ * the mouse off a bookmark.
+ */
+public class Preconnector {
+    /** prefix used for the names of lookup threads. */
+    public static final String THREAD_PREFIX = "willow-preconnector-";
+
+    /** max number of lookups running at once, a lookup can't be interrupted so a slow resolver holds up a thread. */
+    private static final int MAX_RUNNING = 2;
+    /** max number of lookups waiting to run. */
+    private static final int MAX_QUEUED = 4;
+    /** max number of lookups started a minute. */
+    private static final int MAX_LOOKUPS_PER_MINUTE = 30;
+    /** how long a looked up host stays warm, the JVM caches successful lookups for 30 seconds by default. */
+    private static final long WARM_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    /** max number of hosts we remember looking up. */
+    private static final int MAX_WARMED_HOSTS = 256;
+
+    private static Preconnector instance;
+
+    private final ExecutorService resolver;
+    /** host => lookup waiting to run, oldest first. */
+    private final Map<String, Future<?>> queued = new LinkedHashMap<>();
+    /** host => time it was last looked up. */
+    private final LruCache<String, Long> warmed = new LruCache<>(MAX_WARMED_HOSTS);
+    /** start times of the most recent lookups, for the lookup budget. */
+    private final RingBuffer<Long> recentLookups = new RingBuffer<>(MAX_LOOKUPS_PER_MINUTE);
+
+    /**
+     * @return singleton instance
+     */
+    public static synchronized Preconnector getInstance() {
+        if (instance == null) instance = new Preconnector();
+        return instance;
+    }
+
+    private Preconnector() {
+        resolver = Executors.newFixedThreadPool(MAX_RUNNING, new ThreadFactory() {
+            int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, THREAD_PREFIX + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Look up the host of a location in the background, if it's worth it.
+     *
+     * @param location a location the user might navigate to.
+     */
+    public synchronized void preconnect(String location) {
+        final String host = hostOf(location);
+        if (!isWorthLookingUp(host) || queued.containsKey(host)) return;
+
+        final long now = System.currentTimeMillis();
+        final Long warmedAt = warmed.get(host);
+        if (warmedAt != null && now - warmedAt < WARM_MILLIS) return;
+
+        // stay within the budget.
+        if (recentLookups.size() == recentLookups.capacity()
+                && now - recentLookups.get(0) < TimeUnit.MINUTES.toMillis(1)) {
+            return;
+        }
+
+        // the user's interest has moved on from the oldest waiting host.
+        if (queued.size() >= MAX_QUEUED) {
+            Iterator<Future<?>> oldest = queued.values().iterator();
+            oldest.next().cancel(false);
+            oldest.remove();
+        }
+
+        recentLookups.add(now);
+        warmed.put(host, now);
+        queued.put(host, resolver.submit(() -> lookUp(host)));
+    }
+
+    /**
+     * Cancel the look up of the host of a location if it hasn't started, e.g. the user moved off a bookmark.
+     *
+     * @param location a location the user is no longer likely to navigate to.
+     */
+    public synchronized void cancel(String location) {
+        final String host = hostOf(location);
+        if (host == null) return;
+
+        final Future<?> lookup = queued.remove(host);
+        if (lookup != null && lookup.cancel(false)) {
+            // it was never looked up, so it can be looked up again.
+            warmed.remove(host);
+        }
+    }
+
+    /**
+     * Cancel all lookups which haven't started.
+     */
+    public synchronized void cancelAll() {
+        for (Map.Entry<String, Future<?>> lookup : queued.entrySet()) {
+            if (lookup.getValue().cancel(false)) warmed.remove(lookup.getKey());
+        }
+        queued.clear();
+    }
+
+    private void lookUp(String host) {
+        synchronized (this) {
+            queued.remove(host);
+        }
+
+        try {
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            // the user may still be typing the host - no action required.
+        } catch (SecurityException e) {
+            System.out.println("Unable to look up " + host + ": " + e);
+        }
+    }
+
+    /**
+     * @return the lower case host of a location, or null if it has none, e.g. www.example.com for
+     * http://www.example.com/x, or for www.example.com/x as typed into the location field.
+     */
+    private static String hostOf(String location) {
+        if (location == null) return null;
+
+        String host = location.trim();
+        if (host.indexOf(' ') >= 0) return null; // a search, not a location.
+        int schemeEnd = host.indexOf("://");
+        if (schemeEnd >= 0) {
+            String scheme = host.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            if (!scheme.equals("http") && !scheme.equals("https")) return null;
+            host = host.substring(schemeEnd + 3);
+        }
+        for (char separator : new char[] { '/', '?', '#' }) {
+            int idx = host.indexOf(separator);
+            if (idx >= 0) host = host.substring(0, idx);
+        }
+        host = host.substring(host.lastIndexOf('@') + 1);
+        int portIdx = host.lastIndexOf(':');
+        if (portIdx >= 0) host = host.substring(0, portIdx);
+
+        return host.isEmpty() ? null : host.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true if a host needs looking up, e.g. not an ip address and not a partly typed name.
+     */
+    private static boolean isWorthLookingUp(String host) {
+        if (host == null || host.equals("localhost")) return false;
+
+        final int lastDot = host.lastIndexOf('.');
+        if (lastDot <= 0 || lastDot == host.length() - 1) return false;
+        // the last label of a name is the top level domain, which is never a number (and ip addresses need no lookup).
+        return !Character.isDigit(host.charAt(lastDot + 1));
+    }
+}
@@ -22,16 +22,14 @@
 package org.jewelsea.willow.util;
 
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import org.jewelsea.willow.Willow;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.util.ResourceBundle;
 
 /**
@@ -67,32 +65,17 @@ public class ResourceUtil {
     }
 
     /**
-     * Copies an ImageView to a new ImageView, so that we can render multiple copies of the templated
-     * ImageView in a scene.
+     * Turn an awt image into a JavaFX image, scaling it to the requested size.
      *
-     * @param templateImageView an imageview containing an image and other import information to be copied.
-     * @return a copy of the import parts of an ImageView
-     */
-    public static ImageView copyImageView(ImageView templateImageView) {
-        ImageView xerox = new ImageView();
-        xerox.setFitHeight(templateImageView.getFitHeight());
-        xerox.setPreserveRatio(templateImageView.isPreserveRatio());
-        xerox.imageProperty().bind(templateImageView.imageProperty());
-        return xerox;
-    }
-
-    // todo JavaFX now has a SwingFXUtils function for performing awt=>fx images, check if this can be used.
-    /**
-     * Turn an awt image into a JavaFX image.
+     * The pixels are written straight into a WritableImage, no intermediate encoding of the image is performed.
+     *
+     * @param image  the awt image to convert.
+     * @param width  the width of the JavaFX image, or 0 to compute the width from the height preserving the aspect ratio.
+     * @param height the height of the JavaFX image, or 0 to compute the height from the width preserving the aspect ratio.
+     * @return a new JavaFX image.
      */
-    public static javafx.scene.image.Image bufferedImageToFXImage(
-            java.awt.Image image,
-            double width,
-            double height,
-            boolean resize,
-            boolean smooth
-    ) throws IOException {
-        if (!(image instanceof RenderedImage)) {
+    public static WritableImage bufferedImageToFXImage(java.awt.Image image, int width, int height) {
+        if (!(image instanceof BufferedImage)) {
             BufferedImage bufferedImage =
                     new BufferedImage(
                             image.getWidth(null),
@@ -104,10 +87,87 @@ public class ResourceUtil {
             g.dispose();
             image = bufferedImage;
         }
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ImageIO.write((RenderedImage) image, "png", out);
-        out.flush();
-        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
-        return new javafx.scene.image.Image(in, width, height, resize, smooth);
+        final BufferedImage bufferedImage = (BufferedImage) image;
+
+        // work out the size of the JavaFX image.
+        final int srcWidth = bufferedImage.getWidth();
+        final int srcHeight = bufferedImage.getHeight();
+        if (width <= 0 && height <= 0) {
+            width = srcWidth;
+            height = srcHeight;
+        } else if (width <= 0) {
+            width = Math.max(1, (int) Math.round(srcWidth * (double) height / srcHeight));
+        } else if (height <= 0) {
+            height = Math.max(1, (int) Math.round(srcHeight * (double) width / srcWidth));
+        }
+
+        int[] pixels = getArgbPixels(bufferedImage);
+        if (width != srcWidth || height != srcHeight) {
+            pixels = scaleArgbPixels(pixels, srcWidth, srcHeight, width, height);
+        }
+
+        final WritableImage fxImage = new WritableImage(width, height);
+        fxImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+        return fxImage;
+    }
+
+    /**
+     * @return the pixels of the image as non-premultiplied ARGB, sharing the image's own pixel array when possible.
+     */
+    private static int[] getArgbPixels(BufferedImage image) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride() == w
+                && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (data.length == w * h) {
+                return data;
+            }
+        }
+
+        return image.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    /**
+     * Scale an array of non-premultiplied ARGB pixels using an area average of the source pixels
+     * covered by each destination pixel (so downscaled icons stay smooth and transparent edges don't darken).
+     */
+    private static int[] scaleArgbPixels(int[] src, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        final int[] dst = new int[dstWidth * dstHeight];
+        for (int dy = 0; dy < dstHeight; dy++) {
+            final int sy0 = dy * srcHeight / dstHeight;
+            final int sy1 = Math.max(sy0 + 1, (dy + 1) * srcHeight / dstHeight);
+            for (int dx = 0; dx < dstWidth; dx++) {
+                final int sx0 = dx * srcWidth / dstWidth;
+                final int sx1 = Math.max(sx0 + 1, (dx + 1) * srcWidth / dstWidth);
+
+                // average the colors weighted by their alpha.
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int sy = sy0; sy < sy1; sy++) {
+                    final int rowOffset = sy * srcWidth;
+                    for (int sx = sx0; sx < sx1; sx++) {
+                        final int argb = src[rowOffset + sx];
+                        final int alpha = argb >>> 24;
+                        a += alpha;
+                        r += ((argb >> 16) & 0xFF) * alpha;
+                        g += ((argb >> 8) & 0xFF) * alpha;
+                        b += (argb & 0xFF) * alpha;
+                    }
+                }
+
+                final int n = (sy1 - sy0) * (sx1 - sx0);
+                dst[dy * dstWidth + dx] = (a == 0)
+                        ? 0
+                        : (int) (a / n) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+            }
+        }
+
+        return dst;
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+
+package org.jewelsea.willow.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed capacity list which drops its oldest element to make room for a new one.
+ *
+ * Adding and dropping are constant time: the elements live in a circular array, so nothing is shifted when the oldest
+ * element goes.
+ *
+ * @param <T> type of the elements.
+ */
+public class RingBuffer<T> {
+    private final Object[] elements;
+    /** index in the array of the oldest element. */
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity the max number of elements.
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        elements = new Object[capacity];
+    }
+
+    /**
+     * Add an element after the newest element, dropping the oldest element if the buffer is full.
+     *
+     * @return true if the oldest element was dropped.
+     */
+    public boolean add(T element) {
+        final boolean full = size == elements.length;
+        elements[(head + size) % elements.length] = element;
+        if (full) {
+            head = (head + 1) % elements.length;
+        } else {
+            size++;
+        }
+        return full;
+    }
+
+    /**
+     * @param index index of the element, 0 being the oldest.
+     * @return the element.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        return (T) elements[(head + index) % elements.length];
+    }
+
+    /**
+     * Drop the newest elements, keeping the oldest.
+     *
+     * @param newSize the number of elements to keep.
+     */
+    public void truncate(int newSize) {
+        while (size > Math.max(0, newSize)) {
+            elements[(head + size - 1) % elements.length] = null;
+            size--;
+        }
+    }
+
+    public void clear() {
+        truncate(0);
+        head = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * @return a copy of the elements, oldest first.
+     */
+    public List<T> toList() {
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(get(i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 John Smith
+ *
+ * This file is part of Willow.
+ *
+ * Willow is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Willow is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Willow. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact details: http://jewelsea.wordpress.com
+ */
+
+package org.jewelsea.willow.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class for locating and writing the files Willow persists between runs.
+ *
+ * Everything lives under a .willow directory in the user's home directory, split into named areas
+ * (e.g. favicons, session, history).
+ */
+public class StorageUtil {
+    /** system property which may be used to override the root storage directory. */
+    public static final String STORAGE_DIR_PROPERTY = "willow.storage.dir";
+
+    private static final String DEFAULT_STORAGE_DIR = ".willow";
+
+    /**
+     * Get (creating if necessary) the directory used to store a named area of persistent data.
+     *
+     * @param area the name of the storage area, e.g. "favicons".
+     * @return the directory for the storage area.
+     * @throws IOException if the directory does not exist and could not be created.
+     */
+    public static Path getStorageDir(String area) throws IOException {
+        String root = System.getProperty(STORAGE_DIR_PROPERTY);
+        Path rootDir = (root != null)
+                ? Paths.get(root)
+                : Paths.get(System.getProperty("user.home"), DEFAULT_STORAGE_DIR);
+
+        return Files.createDirectories(rootDir.resolve(area));
+    }
+
+    /**
+     * Write data to a file so that readers see either the old or the new contents, never a partial write.
+     *
+     * The data is written to a temporary file in the same directory, forced to disk, then moved over the target,
+     * so a crash just after the move can't leave the target empty.
+     *
+     * @param target the file to write.
+     * @param data   the new contents of the file.
+     * @throws IOException if the data could not be written.
+     */
+    public static void writeAtomically(Path target, byte[] data) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write a length prefixed utf-8 string, which may be null
+     * (writeUTF can't write strings longer than 64KB, e.g. data: urls).
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param maxBytes the longest string expected, anything longer means the data is corrupt.
+     */
+    public static String readString(DataInput in, int maxBytes) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > maxBytes) throw new IOException("Corrupt data, string of " + length + " bytes.");
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param key an arbitrary string such as a url.
+     * @return a stable, filename safe hex digest of the key.
+     */
+    public static String hashKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-1, so this should never happen.
+            throw new IllegalStateException(e);
+        }
+    }
+}